@@ -1,13 +1,24 @@
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Scanner;
 
 import controller.AdvancedController;
+import controller.BatchRunner;
 import controller.IController;
+import controller.ImageService;
 import controller.MVCCommandController;
+import controller.ScriptClient;
+import controller.ScriptServer;
 import model.BetterColorImageProcessor;
+import model.BetterImageProcessor;
 import model.Image;
+import model.TiledImageProcessor;
 import view.ImageGraphicsView;
 
 /**
@@ -18,24 +29,90 @@ public class MainApp {
   /**
    * Entry point for the application.
    * Initializes the model, an image storage, and a controller to process commands.
+   * The text and script modes run headless and never load the graphical interface.
    *
-   * @param args Command-line arguments (not used).
+   * @param args "-text" for interactive text commands, "-file" and a script path to run a
+   *             script, "-server" and optionally a socket path and a number of threads to
+   *             run scripts sent by clients, "-client", a script path and optionally a
+   *             socket path to send a script to a server, "-http" and optionally a port,
+   *             a number of threads and a memory budget in megabytes to process images
+   *             sent over HTTP, "-batch", a script path, an input and an output directory
+   *             and optionally a number of threads and a memory budget in megabytes to run
+   *             a script for every image of a directory, or nothing for the graphical
+   *             interface.
    */
   public static void main(String[] args) {
-    // Create the image processing model
-    BetterColorImageProcessor model = new BetterColorImageProcessor();
+    if (args.length > 1 && args[0].equals("-client")) {
+      // the client only passes the script on, so it loads no image code at all
+      Path socket = args.length > 2 ? Paths.get(args[2]) : ScriptServer.DEFAULT_SOCKET;
+      try {
+        System.exit(ScriptClient.run(args[1], socket, System.out));
+      } catch (IOException e) {
+        System.out.println("Could not run the script on the server: " + e.getMessage());
+        System.exit(1);
+      }
+    }
+    boolean text = args.length > 0 && (args[0].equals("-text") || args[0].equals("-file")
+            || args[0].equals("-server") || args[0].equals("-http")
+            || args[0].equals("-batch"));
+    if (text && System.getProperty("java.awt.headless") == null) {
+      // set before anything touches AWT, so that images are decoded and encoded without
+      // a display or a toolkit
+      System.setProperty("java.awt.headless", "true");
+    }
+
+    // Create the image processing model, which processes tiled images one tile at a time
+    BetterImageProcessor model = new TiledImageProcessor(new BetterColorImageProcessor());
 
     // Create a map for storing named images
     HashMap<String, Image> imageNames = new HashMap<>();
 
-    ImageGraphicsView view = new ImageGraphicsView();
-
-    // Initialize the MVCCommandController with the model and other necessary components
-    if (args.length > 0 && args[0].equals("-text")) {
-      IController controller = new AdvancedController(model, System.in, System.out, imageNames);
-      controller.processCommand();
-    } else if (args.length > 0 && args[0].equals("-file")) {
+    if (!text && GraphicsEnvironment.isHeadless()) {
+      System.out.println("No display is available, starting in text mode.");
+      text = true;
+    }
 
+    if (!text) {
+      Graphical.start(model, imageNames);
+    } else if (args.length > 0 && args[0].equals("-server")) {
+      Path socket = args.length > 1 ? Paths.get(args[1]) : ScriptServer.DEFAULT_SOCKET;
+      int threads = args.length > 2 ? Integer.parseInt(args[2])
+              : Runtime.getRuntime().availableProcessors();
+      try (ScriptServer server = new ScriptServer(model, socket, threads)) {
+        System.out.println("Running scripts sent to " + server.getSocket());
+        server.serve();
+      } catch (IOException e) {
+        System.out.println("Could not run the server: " + e.getMessage());
+      }
+    } else if (args.length > 0 && args[0].equals("-http")) {
+      int port = args.length > 1 ? Integer.parseInt(args[1]) : ImageService.DEFAULT_PORT;
+      int threads = args.length > 2 ? Integer.parseInt(args[2])
+              : Runtime.getRuntime().availableProcessors();
+      long budget = args.length > 3 ? Long.parseLong(args[3]) << 20
+              : Runtime.getRuntime().maxMemory() / 2;
+      try {
+        ImageService service = new ImageService(model, port, threads, budget);
+        service.start();
+        System.out.println("Processing images posted to http://localhost:"
+                + service.getPort() + "/process");
+      } catch (IOException e) {
+        System.out.println("Could not run the service: " + e.getMessage());
+      }
+    } else if (args.length > 3 && args[0].equals("-batch")) {
+      int threads = args.length > 4 ? Integer.parseInt(args[4])
+              : Runtime.getRuntime().availableProcessors();
+      long budget = args.length > 5 ? Long.parseLong(args[5]) << 20
+              : Runtime.getRuntime().maxMemory() / 2;
+      try {
+        int failed = new BatchRunner(model, threads, budget, System.out)
+                .run(Files.readAllLines(Paths.get(args[1])), Paths.get(args[2]),
+                        Paths.get(args[3]));
+        System.exit(failed == 0 ? 0 : 1);
+      } catch (IOException | IllegalArgumentException e) {
+        System.out.println("Could not run the batch: " + e.getMessage());
+        System.exit(1);
+      }
+    } else if (args.length > 1 && args[0].equals("-file")) {
       IController controller = new AdvancedController(model, System.in, System.out, imageNames);
       String scriptFileName = args[1];
       try {
@@ -46,11 +123,23 @@ public class MainApp {
         System.out.println("Script file not found: " + scriptFileName);
         controller.processCommand();
       }
-
     } else {
+      IController controller = new AdvancedController(model, System.in, System.out, imageNames);
+      controller.processCommand();
+    }
+  }
+
+  /**
+   * Starts the graphical interface. It is a class of its own so that the view and Swing
+   * are only loaded when it is used.
+   */
+  private static final class Graphical {
+
+    static void start(BetterImageProcessor model, HashMap<String, Image> imageNames) {
+      ImageGraphicsView view = new ImageGraphicsView();
       MVCCommandController controller = new MVCCommandController(model, System.in,
               System.out, imageNames, view);
       controller.executeGUI();
     }
   }
-}
\ No newline at end of file
+}
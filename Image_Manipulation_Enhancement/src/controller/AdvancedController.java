@@ -4,7 +4,6 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Objects;
-import java.util.Scanner;
 
 import model.BetterImageProcessor;
 import model.Image;
@@ -26,20 +25,39 @@ public class AdvancedController extends TextController {
   }
 
   /**
-   * Executes commands read from the provided scanner.
+   * Executes a single command, including the advanced operations.
    *
-   * @param sc Scanner from which commands are read.
+   * @param command the command line to execute.
    */
   @Override
-  public void executeCommands(Scanner sc) {
-    while (!quit) {
-      System.out.println("Enter command:");
-      if (!sc.hasNext()) {
-        break;
-      }
-      String command = sc.nextLine();
-      executeAdv(command);
+  protected void dispatch(String command) {
+    executeAdv(command);
+  }
+
+  /**
+   * Adds the operation of a command to a pipeline if it can be streamed, including levels
+   * adjustments with valid levels.
+   *
+   * @param pipeline the pipeline to add the operation to.
+   * @param tokens   the command, split into its tokens.
+   * @return true if the operation was added, false if it cannot be streamed.
+   */
+  @Override
+  protected boolean addRowStage(RowPipeline pipeline, String[] tokens) {
+    if (!tokens[0].equals("levels-adjust")) {
+      return super.addRowStage(pipeline, tokens);
+    }
+    if (tokens.length != 6) {
+      return false;
+    }
+    int black = Integer.parseInt(tokens[3]);
+    int mid = Integer.parseInt(tokens[4]);
+    int white = Integer.parseInt(tokens[5]);
+    if (black < 0 || black > mid || mid > white || white > 255) {
+      return false;
     }
+    pipeline.add(0, image -> model.adjustLevels(image, black, mid, white));
+    return true;
   }
 
   private void executeAdv(String command) {
@@ -60,7 +78,7 @@ public class AdvancedController extends TextController {
         if (tokens.length == 5 && Objects.equals(tokens[3], "split")) {
           percentage = Integer.parseInt(tokens[4]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), "dither", percentage);
@@ -76,7 +94,7 @@ public class AdvancedController extends TextController {
         image_name = tokens[2];
         dest_image_name = tokens[3];
         if (percentage > 100 || percentage < 0) {
-          System.out.println("Percentage should be between 0 to 100.");
+          out.println("Percentage should be between 0 to 100.");
         }
         newImage = model.compress(image_names.get(image_name), percentage);
         image_names.put(dest_image_name, newImage);
@@ -95,7 +113,7 @@ public class AdvancedController extends TextController {
         if (tokens.length == 5 && Objects.equals(tokens[3], "split")) {
           percentage = Integer.parseInt(tokens[4]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), "color-correct", percentage);
@@ -113,16 +131,16 @@ public class AdvancedController extends TextController {
         int white = Integer.parseInt(tokens[5]);
 
         if (black > mid || mid > white || black > white) {
-          System.out.println("The values for black, mid and white should be in ascending order.");
+          out.println("The values for black, mid and white should be in ascending order.");
         }
         if (black < 0 || black > 255 || mid < 0 || mid > 255 || white < 0 || white > 255) {
-          System.out.println("The values for black, mid and white should be between 0 and 255.");
+          out.println("The values for black, mid and white should be between 0 and 255.");
         }
 
         if (tokens.length == 8 && Objects.equals(tokens[6], "split")) {
           percentage = Integer.parseInt(tokens[7]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), black, mid, white, percentage);
@@ -140,7 +158,7 @@ public class AdvancedController extends TextController {
         if (tokens.length == 5 && Objects.equals(tokens[3], "split")) {
           percentage = Integer.parseInt(tokens[4]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), "blur", percentage);
@@ -157,7 +175,7 @@ public class AdvancedController extends TextController {
         if (tokens.length == 5 && Objects.equals(tokens[3], "split")) {
           percentage = Integer.parseInt(tokens[4]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), "sharpen", percentage);
@@ -174,7 +192,7 @@ public class AdvancedController extends TextController {
         if (tokens.length == 5 && Objects.equals(tokens[3], "split")) {
           percentage = Integer.parseInt(tokens[4]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), "sepia", percentage);
@@ -191,7 +209,7 @@ public class AdvancedController extends TextController {
         if (tokens.length == 5 && Objects.equals(tokens[3], "split")) {
           percentage = Integer.parseInt(tokens[4]);
           if (percentage > 100 || percentage < 0) {
-            System.out.println("Percentage for split cannot be less than 0 or grater than 100.");
+            out.println("Percentage for split cannot be less than 0 or grater than 100.");
             break;
           }
           newImage = model.splitView(image_names.get(image_name), "grayscale", percentage);
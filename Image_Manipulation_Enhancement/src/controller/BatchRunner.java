@@ -0,0 +1,216 @@
+package controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import model.BetterImageProcessor;
+import model.Image;
+
+/**
+ * Applies a script to every image file of a directory, several files at once. The script
+ * is a template: in each of its lines "$in" is replaced by the path of the file, "$out"
+ * by the path of a file of the same name in the output directory, and "$name" by the
+ * name of the file without its extension. Each file is run by a new
+ * {@link AdvancedController} with no images.
+ *
+ * <p>The files that are run at once are estimated to take no more than a memory budget
+ * together; a file estimated to take more than the whole budget is run alone. A line is
+ * printed as each file is done, with the messages of the script if it failed, and a
+ * summary of the time taken and the throughput at the end.
+ */
+public class BatchRunner {
+
+  /**
+   * Estimated bytes per pixel of each image a script holds, as pixel objects.
+   */
+  private static final long PIXEL_BYTES = 48;
+
+  private final BetterImageProcessor model;
+  private final int threads;
+  private final long memoryBudget;
+  private final PrintStream out;
+  private final ImageUtil util;
+
+  /**
+   * Constructs a runner that runs the files of a directory on a pool of threads.
+   *
+   * @param model        the model that every file is processed with.
+   * @param threads      the number of files run at once.
+   * @param memoryBudget the estimated bytes of the images of the files run at once.
+   * @param out          the stream that the progress and the summary are printed to.
+   */
+  public BatchRunner(BetterImageProcessor model, int threads, long memoryBudget,
+                     PrintStream out) {
+    if (threads < 1 || memoryBudget < 1024) {
+      throw new IllegalArgumentException("The batch needs at least one thread and "
+              + "a kilobyte of memory.");
+    }
+    this.model = model;
+    this.threads = threads;
+    this.memoryBudget = memoryBudget;
+    this.out = out;
+    this.util = new ImageUtil(out);
+  }
+
+  /**
+   * Runs a script for every image file of a directory, in the order of their names. Files
+   * whose extension is not that of an image are skipped, and so are subdirectories.
+   *
+   * @param script the lines of the script.
+   * @param input  the directory of the files.
+   * @param output the directory that "$out" is in, which is created if it does not exist.
+   * @return the number of files whose script failed.
+   * @throws IOException if a directory cannot be listed or created.
+   */
+  public int run(List<String> script, Path input, Path output) throws IOException {
+    if (!Files.isDirectory(input)) {
+      throw new IllegalArgumentException("Not a directory: " + input);
+    }
+    Files.createDirectories(output);
+    Set<String> suffixes = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+    suffixes.addAll(Arrays.asList("ppm", "pgm", "snap"));
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(input)) {
+      files = listing.filter(Files::isRegularFile)
+              .filter(file -> suffixes.contains(extension(file)))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    int images = Math.max(1, imageCount(script));
+    // permits are kilobytes, so that any budget fits in an int
+    int permits = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024);
+    Semaphore memory = new Semaphore(permits);
+    AtomicInteger done = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    long[] pixels = new long[files.size()];
+    ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long start = System.nanoTime();
+    try {
+      List<Future<?>> runs = new ArrayList<>();
+      for (int i = 0; i < files.size(); i++) {
+        int index = i;
+        Path file = files.get(i);
+        runs.add(pool.submit(() -> {
+          long fileStart = System.nanoTime();
+          ByteArrayOutputStream messages = new ByteArrayOutputStream();
+          String failure = null;
+          try {
+            Image image = open(file);
+            pixels[index] = (long) image.getHeight() * image.getWidth();
+            int kilobytes = (int) Math.min(permits,
+                    (pixels[index] * PIXEL_BYTES * images + 1023) / 1024);
+            memory.acquireUninterruptibly(kilobytes);
+            try {
+              runScript(script, file, output, new PrintStream(messages, true));
+            } finally {
+              memory.release(kilobytes);
+            }
+          } catch (IOException | RuntimeException e) {
+            failure = String.valueOf(e.getMessage());
+            failed.incrementAndGet();
+          }
+          long millis = (System.nanoTime() - fileStart) / 1000000;
+          synchronized (out) {
+            out.println("[" + done.incrementAndGet() + "/" + files.size() + "] "
+                    + file.getFileName() + (failure == null ? " done in " + millis + " ms"
+                    : " failed: " + failure));
+            if (failure != null) {
+              out.print(messages.toString().replace("Enter command:" + System.lineSeparator(),
+                  ""));
+            }
+          }
+        }));
+      }
+      for (Future<?> run : runs) {
+        try {
+          run.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while running the batch.");
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+    long total = Arrays.stream(pixels).sum();
+    out.println(String.format(Locale.ROOT, "Processed %d files, %d failed, in %.2f s: "
+                    + "%.2f files/s, %.2f megapixels/s.", files.size(), failed.get(), seconds,
+            files.size() / seconds, total / 1e6 / seconds));
+    return failed.get();
+  }
+
+  /**
+   * Opens a file without decoding it, for its size.
+   */
+  private Image open(Path file) throws IOException {
+    String path = file.toString();
+    return path.endsWith(".snap") ? util.readSnapshot(path) : util.openImage(path);
+  }
+
+  private void runScript(List<String> script, Path file, Path output, PrintStream messages) {
+    String name = file.getFileName().toString();
+    String base = name.substring(0, name.lastIndexOf('.'));
+    String in = file.toAbsolutePath().normalize().toString();
+    String out = output.resolve(name).toAbsolutePath().normalize().toString();
+    List<String> lines = new ArrayList<>();
+    for (String line : script) {
+      lines.add(line.replace("$in", in).replace("$out", out).replace("$name", base));
+    }
+    AdvancedController controller = new AdvancedController(model,
+            new ByteArrayInputStream(new byte[0]), messages, new HashMap<>());
+    // the files run at once already keep the threads busy
+    controller.setPrefetch(0, 0);
+    controller.setSaveThreads(0);
+    controller.executeCommands(new Scanner(String.join("\n", lines)));
+  }
+
+  /**
+   * Counts the commands of a script that register an image.
+   */
+  private static int imageCount(List<String> script) {
+    int count = 0;
+    for (String line : script) {
+      String command = line.trim().split("\\s+")[0];
+      if (!command.isEmpty() && !command.startsWith("#") && !command.equals("save")
+              && !command.equals("q") && !command.equals("tiling")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static String extension(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+}
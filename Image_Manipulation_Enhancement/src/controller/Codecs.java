@@ -0,0 +1,135 @@
+package controller;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Keeps the ImageIO readers and writers of each format for reuse, one of each per thread,
+ * so that loading and saving many files neither looks the codecs up in the service
+ * registry nor creates new ones every time. A codec is taken out of its thread's cache
+ * while it is used and reset when it is given back, so it never holds on to a file.
+ *
+ * <p>ImageIO is also told not to cache streams in temporary files, which every image
+ * read from or written to a file would otherwise go through when it cannot seek back.
+ */
+final class Codecs {
+
+  static {
+    ImageIO.setUseCache(false);
+  }
+
+  private static final ThreadLocal<Map<String, ImageReader>> READERS =
+          ThreadLocal.withInitial(HashMap::new);
+  private static final ThreadLocal<Map<String, ImageWriter>> WRITERS =
+          ThreadLocal.withInitial(HashMap::new);
+
+  private Codecs() {
+  }
+
+  /**
+   * Returns a reader for a file, the one cached for its suffix when it can decode the
+   * file, or else another one cached by this thread that can, so that a file whose name
+   * does not match its format, or that has no name, is still read.
+   *
+   * @param input the stream of the file, left where it was.
+   * @param path  the path of the file, or any name with the suffix of its format.
+   * @return a reader that can decode the file, to be given back with {@link #release}.
+   * @throws IOException if no reader can decode the file.
+   */
+  static ImageReader reader(ImageInputStream input, String path) throws IOException {
+    if (input == null) {
+      throw new IIOException("Unsupported image format: " + path);
+    }
+    Map<String, ImageReader> cached = READERS.get();
+    ImageReader reader = cached.get(suffix(path));
+    if (reader != null && decodes(reader, input)) {
+      return cached.remove(suffix(path));
+    }
+    for (Iterator<ImageReader> readers = cached.values().iterator(); readers.hasNext(); ) {
+      reader = readers.next();
+      if (decodes(reader, input)) {
+        readers.remove();
+        return reader;
+      }
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    if (!readers.hasNext()) {
+      throw new IIOException("Unsupported image format: " + path);
+    }
+    return readers.next();
+  }
+
+  /**
+   * Gives a reader back to be reused by the same thread, for files with the same suffix
+   * or, if the file was not of the format its suffix names, with the usual suffix of the
+   * format.
+   *
+   * @param reader the reader, which may still be set to a stream.
+   * @param path   the path of the file it read.
+   */
+  static void release(ImageReader reader, String path) {
+    reader.reset();
+    ImageReaderSpi provider = reader.getOriginatingProvider();
+    String[] suffixes = provider == null ? null : provider.getFileSuffixes();
+    String key = null;
+    if (suffixes != null && suffixes.length > 0) {
+      key = Arrays.asList(suffixes).contains(suffix(path)) ? suffix(path) : suffixes[0];
+    }
+    if (key == null || READERS.get().putIfAbsent(key, reader) != null) {
+      reader.dispose();
+    }
+  }
+
+  /**
+   * Returns a writer of a format, the one cached by this thread if there is one.
+   *
+   * @param format the format name, such as "jpg" or "bmp".
+   * @return the writer, to be given back with {@link #release}.
+   * @throws IOException if no writer can encode the format.
+   */
+  static ImageWriter writer(String format) throws IOException {
+    ImageWriter writer = WRITERS.get().remove(format.toLowerCase());
+    if (writer != null) {
+      return writer;
+    }
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+    if (!writers.hasNext()) {
+      throw new IIOException("Unsupported image format: " + format);
+    }
+    return writers.next();
+  }
+
+  /**
+   * Gives a writer back to be reused by the same thread for the same format.
+   *
+   * @param writer the writer, which may still be set to a stream.
+   * @param format the format it was taken for.
+   */
+  static void release(ImageWriter writer, String format) {
+    writer.reset();
+    if (WRITERS.get().putIfAbsent(format.toLowerCase(), writer) != null) {
+      writer.dispose();
+    }
+  }
+
+  private static boolean decodes(ImageReader reader, ImageInputStream input)
+          throws IOException {
+    return reader.getOriginatingProvider() != null
+            && reader.getOriginatingProvider().canDecodeInput(input);
+  }
+
+  private static String suffix(String path) {
+    int dot = path.lastIndexOf('.');
+    return dot < 0 ? "" : path.substring(dot + 1).toLowerCase();
+  }
+}
@@ -0,0 +1,447 @@
+package controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+
+import model.BetterImageProcessor;
+import model.Image;
+import model.LazyColorImage;
+
+/**
+ * An HTTP endpoint on the loopback address that applies a chain of operations to an
+ * image and returns the result. A request is a POST to /process with the image file as
+ * its body, in any format ImageIO reads, and a query such as
+ * {@code ops=horizontal-flip,brighten:20,blur&format=jpg&quality=90}. The operations are
+ * named as in scripts, with their numbers after colons, and are applied in order; the
+ * format is png by default.
+ *
+ * <p>The responses other than 200 are 400 for a malformed request, 405 for another
+ * method, 413 for an image too large for the memory budget, and 503, with a Retry-After
+ * header, when the images being processed leave no room for it in the budget. A body
+ * takes its share of the budget as it is read, before it is buffered, and the processing
+ * of a batch of identical requests takes that of the image decoded from their body,
+ * estimated from its header, once for all of them. Requests are handled by a
+ * bounded pool, whose queue, once full, is served by the thread that
+ * accepts connections, so that it stops accepting them. The images are processed by a
+ * pool of workers, and requests for the same operations and format on the same image are
+ * processed once for all of them; see {@link RequestBatcher}.
+ */
+public class ImageService implements Closeable {
+
+  /**
+   * The port that the service listens on by default.
+   */
+  public static final int DEFAULT_PORT = 7342;
+
+  /**
+   * Estimated bytes of memory per pixel of a request: its decoded image, held as packed
+   * integers, and the image an operation reads and the one it writes, held as pixel
+   * objects.
+   */
+  private static final long PIXEL_BYTES = 4 + 2 * 48;
+
+  private final BetterImageProcessor model;
+  private final ImageUtil util = new ImageUtil();
+  private final HttpServer server;
+  private final ThreadPoolExecutor handlers;
+  private final ExecutorService workers;
+  private final RequestBatcher batcher;
+  private final long memoryBudget;
+  private final Semaphore memory;
+
+  /**
+   * Constructs a service that listens on a port of the loopback address. It handles
+   * requests once it is started.
+   *
+   * @param model        the model that processes the images.
+   * @param port         the port, or 0 for any free port.
+   * @param threads      the number of images processed at once.
+   * @param memoryBudget the estimated bytes of memory of the images processed at once.
+   * @throws IOException if the port cannot be listened on.
+   */
+  public ImageService(BetterImageProcessor model, int port, int threads, long memoryBudget)
+          throws IOException {
+    if (threads < 1 || memoryBudget < 1024) {
+      throw new IllegalArgumentException("The service needs at least one thread and "
+              + "a kilobyte of memory.");
+    }
+    this.model = model;
+    this.memoryBudget = memoryBudget;
+    // permits are kilobytes, so that any budget fits in an int
+    this.memory = new Semaphore((int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024));
+    this.workers = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "image-service-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.batcher = new RequestBatcher(workers);
+    // handlers mostly wait for their batch, so there are more of them than workers
+    this.handlers = new ThreadPoolExecutor(2 * threads, 2 * threads, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(8 * threads), task -> {
+              Thread thread = new Thread(task, "image-service");
+              thread.setDaemon(true);
+              return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+            port), 0);
+    server.createContext("/process", this::handle);
+    server.setExecutor(handlers);
+  }
+
+  /**
+   * Returns the port that the service listens on.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Starts handling requests, on threads of its own.
+   */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops handling requests, and lets the threads end.
+   */
+  @Override
+  public void close() {
+    server.stop(0);
+    handlers.shutdown();
+    workers.shutdown();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!exchange.getRequestMethod().equals("POST")) {
+        respond(exchange, 405, "Only POST is supported.");
+        return;
+      }
+      Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+      String ops = query.getOrDefault("ops", "");
+      String format = query.getOrDefault("format", "png");
+      int quality;
+      List<UnaryOperator<Image>> chain;
+      String contentType;
+      try {
+        quality = Integer.parseInt(query.getOrDefault("quality", "-1"));
+        if (quality < -1 || quality > 100) {
+          throw new IllegalArgumentException("Quality should be between 0 and 100.");
+        }
+        chain = parse(ops);
+        contentType = contentType(format);
+      } catch (IllegalArgumentException e) {
+        respond(exchange, 400, e.getMessage());
+        return;
+      }
+      String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+      long length;
+      try {
+        length = declared == null ? -1 : Long.parseLong(declared);
+      } catch (NumberFormatException e) {
+        respond(exchange, 400, "Malformed Content-Length: " + declared);
+        return;
+      }
+      // the body is held from the time it is read until its result is sent
+      Reservation reservation = new Reservation();
+      try {
+        byte[] body = reservation.growTo(Math.max(0, length))
+                ? read(exchange.getRequestBody(), reservation) : null;
+        if (body == null) {
+          refuse(exchange, reservation);
+          return;
+        }
+        LazyColorImage image;
+        try {
+          image = util.openImage(body);
+        } catch (IOException | RuntimeException e) {
+          respond(exchange, 400, "The body is not an image: " + e.getMessage());
+          return;
+        }
+        long decoded = (long) image.getHeight() * image.getWidth() * PIXEL_BYTES;
+        if (body.length + decoded > memoryBudget) {
+          respond(exchange, 413, "The image is larger than the memory budget.");
+          return;
+        }
+        byte[] result = batcher.submit(ops + "&" + format + "&" + quality, body,
+            bytes -> process(bytes, decoded, chain, format, quality)).get();
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, result.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(result);
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause.getCause() != null) {
+          cause = cause.getCause();
+        }
+        if (cause instanceof Busy) {
+          busy(exchange);
+          return;
+        }
+        respond(exchange, cause instanceof IOException ? 400 : 500,
+            "The image could not be processed: " + cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        respond(exchange, 503, "The service is stopping.");
+      } finally {
+        reservation.release();
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Processes the body of a batch, holding the budget of its decoded image meanwhile, or
+   * throws {@link Busy} if the budget has no room for it.
+   */
+  private byte[] process(byte[] body, long decoded, List<UnaryOperator<Image>> chain,
+                         String format, int quality) {
+    Reservation reservation = new Reservation();
+    try {
+      if (!reservation.growTo(decoded)) {
+        throw new Busy();
+      }
+      Image image = util.openImage(body);
+      for (UnaryOperator<Image> operation : chain) {
+        image = operation.apply(image);
+      }
+      return util.encode(image, format, quality);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      reservation.release();
+    }
+  }
+
+  /**
+   * Returns the MIME type of the files of a format, as the writer of the format names it.
+   */
+  private static String contentType(String format) {
+    ImageWriter writer;
+    try {
+      writer = Codecs.writer(format);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage());
+    }
+    try {
+      ImageWriterSpi provider = writer.getOriginatingProvider();
+      String[] types = provider == null ? null : provider.getMIMETypes();
+      return types == null || types.length == 0 ? "application/octet-stream" : types[0];
+    } finally {
+      Codecs.release(writer, format);
+    }
+  }
+
+  /**
+   * Parses a chain of operations, separated by commas, with their numbers after colons.
+   */
+  private List<UnaryOperator<Image>> parse(String ops) {
+    List<UnaryOperator<Image>> chain = new ArrayList<>();
+    for (String op : ops.split(",")) {
+      if (op.isEmpty()) {
+        continue;
+      }
+      String[] parts = op.split(":");
+      int[] numbers = new int[parts.length - 1];
+      for (int i = 1; i < parts.length; i++) {
+        try {
+          numbers[i - 1] = Integer.parseInt(parts[i]);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Not a number in operation: " + op);
+        }
+      }
+      chain.add(operation(parts[0], numbers));
+    }
+    if (chain.isEmpty()) {
+      throw new IllegalArgumentException("No operations given.");
+    }
+    return chain;
+  }
+
+  private UnaryOperator<Image> operation(String name, int[] numbers) {
+    int expected = name.equals("brighten") || name.equals("compress") ? 1
+            : name.equals("levels-adjust") ? 3 : 0;
+    if (numbers.length != expected) {
+      throw new IllegalArgumentException("Operation " + name + " takes " + expected
+              + " numbers.");
+    }
+    switch (name) {
+      case "brighten":
+        return image -> model.brightenOrDarken(image, numbers[0]);
+      case "compress":
+        if (numbers[0] < 0 || numbers[0] > 100) {
+          throw new IllegalArgumentException("Percentage should be between 0 to 100.");
+        }
+        return image -> model.compress(image, numbers[0]);
+      case "levels-adjust":
+        if (numbers[0] < 0 || numbers[0] > numbers[1] || numbers[1] > numbers[2]
+                || numbers[2] > 255) {
+          throw new IllegalArgumentException("The values for black, mid and white should "
+                  + "be in ascending order between 0 and 255.");
+        }
+        return image -> model.adjustLevels(image, numbers[0], numbers[1], numbers[2]);
+      case "blur":
+        return model::blur;
+      case "sharpen":
+        return model::sharpen;
+      case "sepia":
+        return model::sepia;
+      case "dither":
+        return model::dither;
+      case "histogram":
+        return model::histogram;
+      case "color-correct":
+        return model::colorCorrect;
+      case "horizontal-flip":
+        return model::flipHorizontally;
+      case "vertical-flip":
+        return model::flipVertically;
+      case "luma-component":
+        return model::computeLuma;
+      case "value-component":
+        return model::computeValue;
+      case "intensity-component":
+        return model::computeIntensity;
+      case "red-component":
+        return image -> model.splitIntoRGB(image).get("redChannel");
+      case "green-component":
+        return image -> model.splitIntoRGB(image).get("greenChannel");
+      case "blue-component":
+        return image -> model.splitIntoRGB(image).get("blueChannel");
+      default:
+        throw new IllegalArgumentException("Unknown operation: " + name);
+    }
+  }
+
+  private static Map<String, String> query(String raw) {
+    Map<String, String> query = new HashMap<>();
+    if (raw == null) {
+      return query;
+    }
+    for (String pair : raw.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+        try {
+          query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+              URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+    return query;
+  }
+
+  /**
+   * Reads a body, growing a reservation of the memory budget to hold it before each part
+   * is buffered, or returns null once the reservation cannot grow.
+   */
+  private static byte[] read(InputStream in, Reservation reservation) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1 << 16];
+    for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+      if (!reservation.growTo(bytes.size() + (long) count)) {
+        return null;
+      }
+      bytes.write(buffer, 0, count);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Responds to a request whose reservation could not grow: with 413 if it needs more than
+   * the whole budget, or with 503 if it would fit once other requests are done.
+   */
+  private void refuse(HttpExchange exchange, Reservation reservation) throws IOException {
+    if (reservation.requested > memoryBudget) {
+      respond(exchange, 413, "The image is larger than the memory budget.");
+    } else {
+      busy(exchange);
+    }
+  }
+
+  private static void busy(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Retry-After", "1");
+    respond(exchange, 503, "The service is busy.");
+  }
+
+  private static void respond(HttpExchange exchange, int status, String message)
+          throws IOException {
+    byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Thrown when the budget has no room for the image of a batch, whose requests are then
+   * answered with 503.
+   */
+  private static final class Busy extends RuntimeException {
+  }
+
+  /**
+   * The part of the memory budget that a request or a batch holds, in whole kilobytes.
+   */
+  private final class Reservation {
+    private long requested;
+    private int kilobytes;
+
+    /**
+     * Grows the reservation to a number of bytes, unless that is more than the budget has
+     * left.
+     */
+    boolean growTo(long bytes) {
+      requested = Math.max(requested, bytes);
+      if (bytes > memoryBudget) {
+        return false;
+      }
+      int needed = (int) ((bytes + 1023) / 1024);
+      if (needed > kilobytes) {
+        if (!memory.tryAcquire(needed - kilobytes)) {
+          return false;
+        }
+        kilobytes = needed;
+      }
+      return true;
+    }
+
+    void release() {
+      memory.release(kilobytes);
+      kilobytes = 0;
+    }
+  }
+}
@@ -1,54 +1,410 @@
 package controller;
 
-import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.Objects;
-import java.util.Scanner;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 import model.AbstractPixel;
+import model.BufferedColorImage;
 import model.ColorImage;
 import model.ColorPixel;
 import model.Image;
+import model.LazyColorImage;
+import model.TileCache;
+import model.TiledColorImage;
 
 /**
  * Utility class for handling image operations.
  */
 public class ImageUtil {
 
+  /**
+   * Images with fewer pixels than this are converted on the calling thread.
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  private File snapshotCache = System.getProperty("image.cache") == null ? null
+          : new File(System.getProperty("image.cache"));
+  private long inMemoryPixels = Runtime.getRuntime().maxMemory() / 64;
+  private int tileSize = 256;
+  private final TileCache tiles = new TileCache(Runtime.getRuntime().maxMemory() / 8);
+  private int pngCompression = 4;
+  private final PrintStream out;
+
+  /**
+   * Constructs a utility that reports what it saves to the standard output.
+   */
+  public ImageUtil() {
+    this(System.out);
+  }
+
+  /**
+   * Constructs a utility that reports what it saves to the given stream.
+   *
+   * @param out the stream that messages are printed to.
+   */
+  public ImageUtil(PrintStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Sets a directory in which decoded images are kept as snapshots, so that loading the
+   * same unchanged file again maps its snapshot instead of decoding it. The directory is
+   * taken from the image.cache system property by default.
+   *
+   * @param directory the cache directory, which is created when needed, or null to decode
+   *                  every file.
+   */
+  public void setSnapshotCache(File directory) {
+    this.snapshotCache = directory;
+  }
+
+  /**
+   * Sets when images are loaded as tiled images, which keep only some of their tiles on
+   * the heap and the rest in a scratch file. By default, images with more pixels than
+   * a sixty-fourth of the maximum heap size in bytes are tiled, in tiles of 256 by 256
+   * pixels. The tiled images loaded by this utility and the results of operations on
+   * them keep up to an eighth of the maximum heap in tiles together; a new budget also
+   * applies to the images already loaded.
+   *
+   * @param inMemoryPixels the largest number of pixels of an image that is not tiled.
+   * @param tileSize       the width and height of a tile in pixels.
+   * @param memoryBudget   the bytes of tiles that all the tiled images keep on the heap.
+   */
+  public void setTiling(long inMemoryPixels, int tileSize, long memoryBudget) {
+    if (inMemoryPixels < 0 || tileSize < 1 || memoryBudget < 0) {
+      throw new IllegalArgumentException("Tiling settings should not be negative.");
+    }
+    this.inMemoryPixels = inMemoryPixels;
+    this.tileSize = tileSize;
+    tiles.setMemoryBudget(memoryBudget);
+  }
+
+  /**
+   * Sets the compression level of saved PNG files, from 0, which stores the pixels
+   * uncompressed, to 9, which makes the smallest files most slowly. The default is 4, as
+   * for the PNG writer of ImageIO.
+   *
+   * @param level the compression level.
+   */
+  public void setPNGCompression(int level) {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("Compression level should be between 0 and 9.");
+    }
+    this.pngCompression = level;
+  }
+
+  /**
+   * Creates a black image to load pixels into, tiled if it is too large for the heap.
+   */
+  private ColorImage newImage(int height, int width) {
+    if ((long) height * width > inMemoryPixels) {
+      return new TiledColorImage(height, width, tileSize, tiles);
+    }
+    return new ColorImage(height, width);
+  }
 
   /**
-   * Reads an image from the given path and returns a ColorImage object.
+   * Reads an image from the given path and returns a ColorImage object. When a snapshot
+   * cache is set, the decoded image is cached there and later loads of the unchanged file
+   * map the cached snapshot instead.
    *
    * @param path the file path of the image to be read.
    * @return the ColorImage object representation of the read image.
    * @throws IOException if an I/O error occurs while reading the image.
    */
   public ColorImage getImage(String path) throws IOException {
-    BufferedImage image;
     File file = new File(path);
-    image = ImageIO.read(file);
+    if (snapshotCache == null || !file.canRead()) {
+      return decode(file);
+    }
+    // the key changes whenever the file is replaced or modified
+    String key = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+    Path cached = snapshotCache.toPath().resolve(
+            UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + ".snap");
+    if (Files.isRegularFile(cached)) {
+      try {
+        return Snapshot.map(cached);
+      } catch (IOException e) {
+        // a damaged snapshot is replaced below
+      }
+    }
+    ColorImage image = decode(file);
+    Files.createDirectories(snapshotCache.toPath());
+    Snapshot.write(image, cached);
+    return image;
+  }
 
-    int width = image.getWidth();
-    int height = image.getHeight();
-    ColorImage newImage = new ColorImage(height, width);
-    Color color;
-    ColorPixel pixel;
+  /**
+   * Opens an image file without decoding it. The size of the image is read from the
+   * header of the file, and its pixels are decoded when they are first used, the same way
+   * as {@link #readPPM} or {@link #getImage} would.
+   *
+   * @param path the file path of the image.
+   * @return an image of the size of the file that decodes it on first use.
+   * @throws IOException if the file cannot be read or its header is malformed.
+   */
+  public LazyColorImage openImage(String path) throws IOException {
+    if (path.endsWith(".ppm") || path.endsWith(".pgm")) {
+      try (PPMReader reader = new PPMReader(FileChannel.open(Paths.get(path),
+              StandardOpenOption.READ), ColorImage::new, out)) {
+        reader.readSize();
+        return new LazyColorImage(reader.getHeight(), reader.getWidth(),
+            () -> readPPM(path));
+      }
+    }
+    File file = new File(path);
+    try (ImageInputStream input = open(file)) {
+      ImageReader reader = Codecs.reader(input, path);
+      try {
+        // the header alone gives the size, and only what the reader needs of it is read
+        reader.setInput(input, true, true);
+        return new LazyColorImage(reader.getHeight(0), reader.getWidth(0), () -> {
+          try {
+            return getImage(path);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+      } finally {
+        Codecs.release(reader, path);
+      }
+    }
+  }
 
-    for (int row = 0; row < height; row++) {
-      for (int col = 0; col < width; col++) {
-        color = new Color(image.getRGB(col, row));
-        pixel = new ColorPixel(color.getRed(), color.getGreen(), color.getBlue());
-        newImage.setPixel(row, col, pixel);
+  /**
+   * Opens the bytes of an image file without decoding them, like {@link #openImage(String)}
+   * does a file. Any format that ImageIO reads is recognized from its bytes.
+   *
+   * @param bytes the bytes of the image file.
+   * @return an image of the size given by the header that decodes the bytes on first use.
+   * @throws IOException if the format is not recognized or its header is malformed.
+   */
+  public LazyColorImage openImage(byte[] bytes) throws IOException {
+    try (ImageInputStream input = new MemoryCacheImageInputStream(
+            new ByteArrayInputStream(bytes))) {
+      ImageReader reader = Codecs.reader(input, "");
+      try {
+        reader.setInput(input, true, true);
+        return new LazyColorImage(reader.getHeight(0), reader.getWidth(0), () -> {
+          try {
+            return decode(bytes);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+      } finally {
+        Codecs.release(reader, "");
       }
     }
-    return newImage;
+  }
+
+  private ColorImage decode(byte[] bytes) throws IOException {
+    try (ImageInputStream input = new MemoryCacheImageInputStream(
+            new ByteArrayInputStream(bytes))) {
+      ImageReader reader = Codecs.reader(input, "");
+      try {
+        reader.setInput(input, true, true);
+        return toColorImage(reader.read(0, rgbReadParam(reader)));
+      } finally {
+        Codecs.release(reader, "");
+      }
+    }
+  }
+
+  private static ImageInputStream open(File file) throws IOException {
+    if (!file.canRead()) {
+      throw new IIOException("Can't read input file!");
+    }
+    return ImageIO.createImageInputStream(file);
+  }
+
+  private ColorImage decode(File file) throws IOException {
+    try (ImageInputStream input = open(file)) {
+      ImageReader reader = Codecs.reader(input, file.getPath());
+      try {
+        reader.setInput(input, false, true);
+        if ((long) reader.getHeight(0) * reader.getWidth(0) > inMemoryPixels) {
+          return decodeTiled(reader, file);
+        }
+        return toColorImage(reader.read(0, rgbReadParam(reader)));
+      } finally {
+        Codecs.release(reader, file.getPath());
+      }
+    }
+  }
+
+  /**
+   * Returns a parameter that decodes straight into packed RGB integers when the reader
+   * can, so the decoded image needs no conversion at all.
+   */
+  private static ImageReadParam rgbReadParam(ImageReader reader) throws IOException {
+    ImageReadParam param = reader.getDefaultReadParam();
+    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+    while (types.hasNext()) {
+      ImageTypeSpecifier type = types.next();
+      if (type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+        param.setDestinationType(type);
+        break;
+      }
+    }
+    return param;
+  }
+
+  /**
+   * Decodes a rectangle of an image file, keeping only one pixel in every few rows and
+   * columns of it. The pixels that are left out are never decoded, for the formats whose
+   * readers can skip them, such as JPEG, and never kept otherwise, so a large file is read
+   * much faster and into much less memory than {@link #getImage(String)} would.
+   *
+   * @param path        the file path of the image, in any format ImageIO reads.
+   * @param x           the column of the top left corner of the rectangle.
+   * @param y           the row of the top left corner of the rectangle.
+   * @param width       the width of the rectangle.
+   * @param height      the height of the rectangle.
+   * @param subsampling the image keeps the pixels of every this many rows and columns,
+   *                    starting with the corner.
+   * @return the decoded pixels, ceil(height / subsampling) by ceil(width / subsampling).
+   * @throws IOException              if the file cannot be read or decoded.
+   * @throws IllegalArgumentException if the rectangle is not within the image or the
+   *                                  subsampling is not positive.
+   */
+  public ColorImage getImage(String path, int x, int y, int width, int height,
+                             int subsampling) throws IOException {
+    if (subsampling < 1) {
+      throw new IllegalArgumentException("Subsampling should be at least 1.");
+    }
+    try (ImageInputStream input = open(new File(path))) {
+      ImageReader reader = Codecs.reader(input, path);
+      try {
+        reader.setInput(input, true, true);
+        if (x < 0 || y < 0 || width < 1 || height < 1
+                || x + width > reader.getWidth(0) || y + height > reader.getHeight(0)) {
+          throw new IllegalArgumentException("The region is not within the image.");
+        }
+        ImageReadParam param = rgbReadParam(reader);
+        param.setSourceRegion(new Rectangle(x, y, width, height));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return toColorImage(reader.read(0, param));
+      } finally {
+        Codecs.release(reader, path);
+      }
+    }
+  }
+
+  /**
+   * Decodes a preview of a whole image file with no more than a given number of pixels,
+   * by keeping one pixel in every few rows and columns of it, as few as there can be.
+   *
+   * @param path      the file path of the image, in any format ImageIO reads.
+   * @param maxPixels the greatest number of pixels of the preview.
+   * @return the preview.
+   * @throws IOException if the file cannot be read or decoded.
+   */
+  public ColorImage getPreview(String path, long maxPixels) throws IOException {
+    try (ImageInputStream input = open(new File(path))) {
+      ImageReader reader = Codecs.reader(input, path);
+      try {
+        reader.setInput(input, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        // no smaller subsampling keeps few enough pixels, but rounding up may keep too many
+        int subsampling = Math.max(1, (int) Math.ceil(Math.sqrt((double) width * height
+                / Math.max(1, maxPixels))));
+        while ((long) ceilDiv(width, subsampling) * ceilDiv(height, subsampling) > maxPixels
+                && subsampling < Math.max(width, height)) {
+          subsampling++;
+        }
+        ImageReadParam param = rgbReadParam(reader);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return toColorImage(reader.read(0, param));
+      } finally {
+        Codecs.release(reader, path);
+      }
+    }
+  }
+
+  private static int ceilDiv(int a, int b) {
+    return (a + b - 1) / b;
+  }
+
+  /**
+   * Decodes an image into a tiled image. Readers that accept any destination decode
+   * straight into the tiles in one pass; the others decode one band of tile rows at a
+   * time.
+   */
+  private TiledColorImage decodeTiled(ImageReader reader, File file) throws IOException {
+    int height = reader.getHeight(0);
+    int width = reader.getWidth(0);
+    TiledColorImage image = new TiledColorImage(height, width, tileSize, tiles);
+    BufferedImage destination = TiledDataBuffer.bufferedImage(image);
+    ImageInputStream reopened = null;
+    if (destination != null) {
+      try {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination);
+        reader.read(0, param);
+        return image;
+      } catch (IllegalArgumentException | ClassCastException e) {
+        // this reader only decodes into its own kinds of images, so it starts over
+        reopened = ImageIO.createImageInputStream(file);
+        reader.setInput(reopened, false, true);
+      }
+    }
+    try {
+      int[] row = new int[width];
+      for (int top = 0; top < height; top += tileSize) {
+        int rows = Math.min(tileSize, height - top);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, top, width, rows));
+        BufferedImage band = reader.read(0, param);
+        for (int i = 0; i < rows; i++) {
+          band.getRGB(0, i, width, 1, row, 0, width);
+          for (int j = 0; j < width; j++) {
+            image.setRGB(top + i, j, row[j]);
+          }
+        }
+      }
+    } finally {
+      if (reopened != null) {
+        reopened.close();
+      }
+    }
+    return image;
   }
 
   /**
@@ -59,122 +415,465 @@ public class ImageUtil {
    * @param extension the file format extension (e.g., "png" or "jpg").
    */
   public void saveImage(Image image, String path, String extension) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int imageType;
+    saveImage(image, path, extension, -1, false);
+  }
+
+  /**
+   * Saves a given Image object to the specified path with the given extension, at a given
+   * quality. The quality is that of a JPEG file, and chooses the compression level of a
+   * PNG file the way the PNG writer of ImageIO does, from level 9 at quality 0 to level 0
+   * at quality 100. It is ignored for formats that are not compressed.
+   *
+   * @param image       the Image object to be saved.
+   * @param path        the destination file path.
+   * @param extension   the file format extension (e.g., "png" or "jpg").
+   * @param quality     the quality from 0 to 100, or -1 for the default of the format.
+   * @param progressive whether a format that can be written progressively, such as JPEG,
+   *                    is.
+   * @throws IllegalArgumentException if the quality is out of range.
+   */
+  public void saveImage(Image image, String path, String extension, int quality,
+                        boolean progressive) {
+    if (quality < -1 || quality > 100) {
+      throw new IllegalArgumentException("Quality should be between 0 and 100.");
+    }
+    if (image instanceof LazyColorImage) {
+      saveImage(((LazyColorImage) image).getImage(), path, extension, quality, progressive);
+      return;
+    }
     if (Objects.equals(extension, "png")) {
-      imageType = 6;
+      savePNG(image, path, quality < 0 ? pngCompression : 9 - Math.round(0.09f * quality));
+      return;
+    }
+    try {
+      write(encodable(image), path, extension, quality, progressive);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    out.println("Saved image");
+  }
+
+  /**
+   * Encodes an image into the bytes of a file of a format, the way {@link #saveImage}
+   * would save it.
+   *
+   * @param image   the image to encode.
+   * @param format  the format, such as "png" or "jpg".
+   * @param quality the quality from 0 to 100, or -1 for the default of the format.
+   * @return the bytes of the file.
+   * @throws IOException              if the format cannot be written.
+   * @throws IllegalArgumentException if the quality is out of range.
+   */
+  public byte[] encode(Image image, String format, int quality) throws IOException {
+    if (quality < -1 || quality > 100) {
+      throw new IllegalArgumentException("Quality should be between 0 and 100.");
+    }
+    if (image instanceof LazyColorImage) {
+      return encode(((LazyColorImage) image).getImage(), format, quality);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    if (Objects.equals(format, "png")) {
+      new PNGWriter(Channels.newChannel(bytes),
+              quality < 0 ? pngCompression : 9 - Math.round(0.09f * quality),
+              ForkJoinPool.commonPool(), 2 * Runtime.getRuntime().availableProcessors())
+              .write(image);
     } else {
-      imageType = 5;
+      try (ImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+        write(encodable(image), output, format, quality, false);
+      }
     }
-    BufferedImage b = new BufferedImage(width, height, imageType);
-    File newImageFile = new File(path);
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns a buffered image with the pixels of an image, sharing them when it can.
+   */
+  private BufferedImage encodable(Image image) {
+    BufferedImage b = null;
+    if (image instanceof BufferedColorImage) {
+      b = ((BufferedColorImage) image).getBufferedImage();
+    } else if (image instanceof TiledColorImage) {
+      // encoded straight from the tiles, when the image is small enough to address
+      b = TiledDataBuffer.bufferedImage((TiledColorImage) image);
+    }
+    if (b == null) {
+      b = toBufferedImage(image, BufferedImage.TYPE_3BYTE_BGR);
+    }
+    return b;
+  }
 
-    for (int row = 0; row < height; row++) {
-      for (int col = 0; col < width; col++) {
-        ColorPixel pixel = (ColorPixel) image.getPixel(row, col);
-        int red = (int) AbstractPixel.validateColorValue(pixel.getRed());
-        int green = (int) AbstractPixel.validateColorValue(pixel.getGreen());
-        int blue = (int) AbstractPixel.validateColorValue(pixel.getBlue());
-        Color newColor = new Color(red, green, blue);
-        b.setRGB(col, row, newColor.getRGB());
+  /**
+   * Encodes an image to a file with the writer of its format that this thread keeps.
+   */
+  static void write(BufferedImage image, String path, String format, int quality,
+                    boolean progressive) throws IOException {
+    // taken before the file is touched, so that an unsupported format leaves it as it was
+    ImageWriter writer = Codecs.writer(format);
+    try {
+      replace(Paths.get(path), temporary -> {
+        try (ImageOutputStream output = new FileImageOutputStream(temporary.toFile())) {
+          write(image, output, writer, quality, progressive);
+        }
+      });
+    } finally {
+      Codecs.release(writer, format);
+    }
+  }
+
+  /**
+   * Encodes an image to a stream with the writer of its format that this thread keeps.
+   */
+  private static void write(BufferedImage image, ImageOutputStream output, String format,
+                            int quality, boolean progressive) throws IOException {
+    ImageWriter writer = Codecs.writer(format);
+    try {
+      write(image, output, writer, quality, progressive);
+    } finally {
+      Codecs.release(writer, format);
+    }
+  }
+
+  private static void write(BufferedImage image, ImageOutputStream output, ImageWriter writer,
+                            int quality, boolean progressive) throws IOException {
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    if (quality >= 0 && param.canWriteCompressed()) {
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      if (param.getCompressionType() == null) {
+        param.setCompressionType(param.getCompressionTypes()[0]);
       }
+      param.setCompressionQuality(quality / 100f);
+    }
+    if (progressive && param.canWriteProgressive()) {
+      param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
     }
+    writer.setOutput(output);
+    writer.write(null, new IIOImage(image, null, null), param);
+  }
+
+  /**
+   * Writes a file under a temporary name next to it and then moves it into place, so that
+   * if writing fails the previous file is left as it was, and a file that is still mapped
+   * or read keeps its contents until the new one replaces it.
+   *
+   * @param target  the path of the file.
+   * @param writing writes the file at the temporary path it is given.
+   * @throws IOException if writing or moving the file fails.
+   */
+  static void replace(Path target, FileWriting writing) throws IOException {
+    Path absolute = target.toAbsolutePath();
+    // not a temporary file of Files, which is only readable by its owner
+    Path temporary = absolute.resolveSibling("." + absolute.getFileName() + "."
+            + UUID.randomUUID() + ".tmp");
     try {
-      ImageIO.write(b, extension, newImageFile);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      writing.write(temporary);
+      Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
     }
-    System.out.println("Saved image");
   }
 
+  /**
+   * Writes a file at a path.
+   */
+  interface FileWriting {
+    void write(Path path) throws IOException;
+  }
 
   /**
-   * Reads a PPM image file and returns its ColorImage representation.
+   * Saves an image as an 8-bit RGB PNG file, with its channels truncated to whole levels.
+   * Chunks of rows are compressed in parallel, and the file is the same whatever the
+   * number of threads.
    *
-   * @param filename the path of the PPM file.
-   * @return the ColorImage object representation of the read PPM file.
+   * @param image the image to save.
+   * @param path  the destination file path.
    */
-  public ColorImage readPPM(String filename) {
-    Scanner sc;
+  public void savePNG(Image image, String path) {
+    savePNG(image, path, pngCompression);
+  }
 
+  private void savePNG(Image image, String path, int level) {
     try {
-      sc = new Scanner(new FileInputStream(filename));
-    } catch (FileNotFoundException e) {
+      replace(Paths.get(path), temporary -> {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW)) {
+          new PNGWriter(channel, level, ForkJoinPool.commonPool(),
+                  2 * Runtime.getRuntime().availableProcessors()).write(image);
+        }
+      });
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    StringBuilder builder = new StringBuilder();
-    //read the file line by line, and populate a string. This will throw away any comment lines
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s + System.lineSeparator());
-      }
+    out.println("Saved image");
+  }
+
+  /**
+   * Returns a ColorImage with the pixels of a buffered image. A buffered image of type
+   * {@link BufferedImage#TYPE_INT_RGB} is wrapped rather than copied, so that the two
+   * share their pixels. Any other is converted into a new one of that type, a row at a
+   * time, in bands in parallel for large images.
+   *
+   * @param image the buffered image to convert.
+   * @return the ColorImage with the colors of the buffered image, without their alpha.
+   */
+  public ColorImage toColorImage(BufferedImage image) {
+    if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+      return new BufferedColorImage(image);
     }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    BufferedColorImage newImage = new BufferedColorImage(height, width);
+    WritableRaster raster = newImage.getBufferedImage().getRaster();
 
-    //now set up the scanner to read from the string we just built
-    sc = new Scanner(builder.toString());
+    inBands(height, width, (startRow, endRow) -> {
+      int[] row = new int[width];
+      for (int i = startRow; i < endRow; i++) {
+        image.getRGB(0, i, width, 1, row, 0, width);
+        for (int j = 0; j < width; j++) {
+          row[j] &= 0xFFFFFF;
+        }
+        raster.setDataElements(0, i, width, 1, row);
+      }
+    });
+    return newImage;
+  }
 
-    String token;
+  /**
+   * Converts an image to a buffered image of the given type. Rows are written in bulk,
+   * straight into the pixel array for types that store packed RGB integers, and large
+   * images are converted in bands in parallel.
+   *
+   * @param image     the image to convert.
+   * @param imageType the type of the buffered image, such as
+   *                  {@link BufferedImage#TYPE_INT_RGB}.
+   * @return the buffered image, fully opaque, which is the one that holds the pixels of
+   *        a {@link BufferedColorImage} when that has the type asked for.
+   */
+  public BufferedImage toBufferedImage(Image image, int imageType) {
+    if (image instanceof LazyColorImage) {
+      return toBufferedImage(((LazyColorImage) image).getImage(), imageType);
+    }
+    if (image instanceof BufferedColorImage && imageType == BufferedImage.TYPE_INT_RGB) {
+      return ((BufferedColorImage) image).getBufferedImage();
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    BufferedImage b = new BufferedImage(width, height, imageType);
+    PackedPixels packed = PackedPixels.of(b);
+    int alpha = imageType == BufferedImage.TYPE_INT_RGB ? 0 : 0xFF000000;
 
-    token = sc.next();
-    if (!token.equals("P3")) {
-      System.out.println("Invalid PPM file: plain RAW file should begin with P3");
+    inBands(height, width, (startRow, endRow) -> {
+      int[] row = new int[width];
+      for (int i = startRow; i < endRow; i++) {
+        int[] target = row;
+        int offset = 0;
+        if (packed != null) {
+          target = packed.data;
+          offset = packed.rowOffset(i);
+        }
+        for (int j = 0; j < width; j++) {
+          ColorPixel pixel = image.getPixel(i, j);
+          int red = (int) AbstractPixel.validateColorValue(pixel.getRed());
+          int green = (int) AbstractPixel.validateColorValue(pixel.getGreen());
+          int blue = (int) AbstractPixel.validateColorValue(pixel.getBlue());
+          target[offset + j] = alpha | (red << 16) | (green << 8) | blue;
+        }
+        if (packed == null) {
+          b.setRGB(0, i, width, 1, row, 0, width);
+        }
+      }
+    });
+    return b;
+  }
+
+  /**
+   * Runs a task over the rows of an image, split into bands that run in parallel when the
+   * image is large enough to be worth it.
+   */
+  private static void inBands(int height, int width, RowTask task) {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    if (parallelism == 1 || (long) height * width < PARALLEL_THRESHOLD || height < 2) {
+      task.run(0, height);
+      return;
     }
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    int maxValue = sc.nextInt();
-    System.out.println("Maximum value of a color in this file (usually 255): " + maxValue);
+    int bands = Math.min(height, parallelism * 4);
+    IntStream.range(0, bands)
+            .parallel()
+            .forEach(band -> task.run((int) ((long) height * band / bands),
+                    (int) ((long) height * (band + 1) / bands)));
+  }
 
-    ColorImage newImage = new ColorImage(height, width);
-    ColorPixel pixel;
+  /**
+   * A task over a range of rows.
+   */
+  private interface RowTask {
+    void run(int startRow, int endRow);
+  }
 
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        pixel = new ColorPixel(r, g, b);
-        newImage.setPixel(i, j, pixel);
+  /**
+   * The pixel array of a buffered image that stores each pixel as one packed RGB or ARGB
+   * integer, with the layout needed to find its rows.
+   */
+  private static final class PackedPixels {
+    private final int[] data;
+    private final int offset;
+    private final int scanlineStride;
+
+    private PackedPixels(int[] data, int offset, int scanlineStride) {
+      this.data = data;
+      this.offset = offset;
+      this.scanlineStride = scanlineStride;
+    }
+
+    /**
+     * Returns the packed pixels of an image, or null if it stores its pixels another way.
+     */
+    static PackedPixels of(BufferedImage image) {
+      int type = image.getType();
+      if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+        return null;
       }
+      WritableRaster raster = image.getRaster();
+      if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+              || !(raster.getDataBuffer() instanceof DataBufferInt)) {
+        return null;
+      }
+      SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+      DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+      int offset = buffer.getOffset() + model.getOffset(
+              -raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+      return new PackedPixels(buffer.getData(), offset, model.getScanlineStride());
+    }
+
+    int rowOffset(int row) {
+      return offset + row * scanlineStride;
     }
-    return newImage;
   }
 
   /**
-   * Saves a given Image object as a PPM file to the specified path.
+   * Opens an image snapshot, a raw file of header and planes written by
+   * {@link #saveSnapshot}. The file is mapped into memory rather than read, so opening
+   * takes the same time for any size of image and pixels are read from the file only
+   * when they are used. Changes to the image are not written back to the file.
    *
-   * @param image the Image object to be saved as PPM.
-   * @param path  the destination file path for the PPM file.
+   * @param path the path of the snapshot file.
+   * @return the image in the snapshot.
    */
-  public void savePPM(Image image, String path) {
+  public ColorImage readSnapshot(String path) {
     try {
-      FileWriter writer = new FileWriter(new File(path));
-
-      int width = image.getWidth();
-      int height = image.getHeight();
+      return Snapshot.map(Paths.get(path));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-      writer.write("P3\n");
-      writer.write(width + " " + height + "\n");
-      writer.write("255\n");
+  /**
+   * Saves a given Image object as an image snapshot, with its channels truncated to whole
+   * levels.
+   *
+   * @param image the Image object to be saved.
+   * @param path  the destination file path.
+   */
+  public void saveSnapshot(Image image, String path) {
+    try {
+      Snapshot.write(image, Paths.get(path));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    out.println("Saved snapshot");
+  }
 
-      for (int row = 0; row < height; row++) {
-        for (int col = 0; col < width; col++) {
-          ColorPixel pixel = (ColorPixel) image.getPixel(row, col);
-          int red = (int) AbstractPixel.validateColorValue(pixel.getRed());
-          int green = (int) AbstractPixel.validateColorValue(pixel.getGreen());
-          int blue = (int) AbstractPixel.validateColorValue(pixel.getBlue());
+  /**
+   * Reads a PPM or PGM image file, plain or binary, and returns its ColorImage
+   * representation.
+   *
+   * @param filename the path of the PPM file.
+   * @return the ColorImage object representation of the read PPM file.
+   */
+  public ColorImage readPPM(String filename) {
+    try (PPMReader reader = new PPMReader(FileChannel.open(Paths.get(filename),
+            StandardOpenOption.READ), this::newImage, out)) {
+      return reader.read();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
 
-          writer.write(red + " " + green + " " + blue + " ");
+  /**
+   * Saves a given Image object as a PPM or PGM file in the given format. The binary
+   * formats accept any maximum value from 1 to 65535; values above 255 are written with
+   * two bytes per sample.
+   *
+   * @param image    the Image object to be saved.
+   * @param path     the destination file path.
+   * @param format   "P3" for plain PPM, "P6" for binary PPM or "P5" for binary PGM.
+   * @param maxValue the largest sample value in the file.
+   */
+  public void savePPM(Image image, String path, String format, int maxValue) {
+    PPMWriter.checkFormat(format, maxValue);
+    if (format.equals("P3")) {
+      savePPM(image, path);
+      return;
+    }
+    try {
+      replace(Paths.get(path), temporary -> {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW)) {
+          new PPMWriter(channel).writeBinary(image, format, maxValue);
         }
-        writer.write("\n");
-      }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    out.println("Saved PPM image");
+  }
 
-      writer.close();
+  /**
+   * Saves a given Image object as a PPM file to the specified path.
+   *
+   * @param image the Image object to be saved as PPM.
+   * @param path  the destination file path for the PPM file.
+   */
+  public void savePPM(Image image, String path) {
+    try {
+      replace(Paths.get(path), temporary -> {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW)) {
+          new PPMWriter(channel).writePlain(image);
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    out.println("Saved PPM image");
+  }
 
-      System.out.println("Saved PPM image");
+  /**
+   * Reads a PPM or PGM image file, applies a chain of operations to it and saves the
+   * result as a PPM or PGM file, a strip of rows at a time.
+   *
+   * @param source      the path of the image to read.
+   * @param destination the path to save the result to.
+   * @param format      "P3" for plain PPM, "P6" for binary PPM or "P5" for binary PGM.
+   * @param maxValue    the largest sample value in the saved file.
+   * @param pipeline    the operations to apply.
+   */
+  void streamPPM(String source, String destination, String format, int maxValue,
+                 RowPipeline pipeline) {
+    PPMWriter.checkFormat(format, maxValue);
+    try {
+      // the source may be the destination, which is only replaced once it is read
+      replace(Paths.get(destination), temporary -> {
+        try (PPMReader reader = new PPMReader(FileChannel.open(Paths.get(source),
+                StandardOpenOption.READ), ColorImage::new, out);
+             FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE_NEW)) {
+          pipeline.run(reader, new PPMWriter(channel), format, maxValue);
+        }
+      });
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    out.println("Saved PPM image");
   }
 }
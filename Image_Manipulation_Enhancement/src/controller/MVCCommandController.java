@@ -1,6 +1,5 @@
 package controller;
 
-import java.awt.Color;
 import java.awt.Component;
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -9,22 +8,29 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-import model.AbstractPixel;
 import model.BetterImageProcessor;
 import model.ColorImage;
-import model.ColorPixel;
 import model.Image;
+import model.LazyColorImage;
 import view.IView;
 
 /**
  * Controller class for the Graphical User Interface application.
  */
 public class MVCCommandController implements IGraphicsController {
+
+  /**
+   * Images with more pixels than this are previewed while they are decoded.
+   */
+  private static final long PREVIEW_PIXELS = 1 << 20;
+
   protected Scanner sc;
   protected BetterImageProcessor model;
   protected ImageUtil util = new ImageUtil();
@@ -62,17 +68,68 @@ public class MVCCommandController implements IGraphicsController {
 
     int returnVal = fileChooser.showOpenDialog(null);
     if (returnVal == JFileChooser.APPROVE_OPTION) {
-      File file = new File(fileChooser.getSelectedFile().getAbsolutePath());
+      openImage(fileChooser.getSelectedFile().getAbsolutePath());
+    }
+  }
+
+  /**
+   * Opens an image file and decodes it in the background. A large image is shown at once
+   * as a preview, decoded from only some of its pixels, until the whole image is decoded.
+   * The image is the current one from the start, so an operation applied to it before it
+   * is decoded waits for it.
+   *
+   * @param path the file path of the image.
+   * @return the task that decodes the whole image and then shows it.
+   */
+  SwingWorker<ColorImage, Void> openImage(String path) {
+    LazyColorImage image;
+    try {
+      image = util.openImage(path);
+    } catch (IOException e) {
+      view.showErrorMessage("Error reading image file: " + e.getMessage());
+      return null;
+    }
+    currentImage = image;
+    image_names.put("Original image", image);
+    image_names.put("current_image", image);
+    boolean ppm = path.endsWith(".ppm") || path.endsWith(".pgm");
+    if (!ppm && (long) image.getHeight() * image.getWidth() > PREVIEW_PIXELS) {
       try {
-        ColorImage colorImage = util.getImage(file.getAbsolutePath());
-        currentImage = colorImage;
-        image_names.put("Original image", currentImage);
-        image_names.put("current_image", currentImage);
-        updateImageAndView(colorImage);
-      } catch (IOException e) {
-        view.showErrorMessage("Error reading image file: " + e.getMessage());
+        showImage(util.getPreview(path, PREVIEW_PIXELS));
+      } catch (IOException | RuntimeException e) {
+        // the whole image is shown, or its error reported, once it is decoded
       }
     }
+    SwingWorker<ColorImage, Void> decoding = new SwingWorker<ColorImage, Void>() {
+      @Override
+      protected ColorImage doInBackground() {
+        return image.getImage();
+      }
+
+      @Override
+      protected void done() {
+        try {
+          get();
+        } catch (InterruptedException | ExecutionException e) {
+          Throwable cause = e;
+          while (cause.getCause() != null) {
+            cause = cause.getCause();
+          }
+          if (currentImage == image) {
+            image_names.remove("Original image");
+            image_names.remove("current_image");
+          }
+          view.showErrorMessage("Error reading image file: " + cause.getMessage());
+          return;
+        }
+        // unless another image was opened or made from this one meanwhile
+        if (currentImage == image) {
+          updateImageAndView(image);
+        }
+      }
+    };
+    decoding.execute();
+    return decoding;
   }
 
   /**
@@ -449,6 +506,10 @@ public class MVCCommandController implements IGraphicsController {
 
   private void updateImageAndView(ColorImage newImage) {
     currentImage = newImage;
+    showImage(newImage);
+  }
+
+  private void showImage(ColorImage newImage) {
     BufferedImage bufferedImage = convertToBufferedImage(newImage);
     ImageIcon imageIcon = new ImageIcon(bufferedImage);
     view.updateDisplayedImage(imageIcon);
@@ -463,20 +524,6 @@ public class MVCCommandController implements IGraphicsController {
   }
 
   private BufferedImage convertToBufferedImage(ColorImage colorImage) {
-    int width = colorImage.getWidth();
-    int height = colorImage.getHeight();
-    BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-    for (int row = 0; row < height; row++) {
-      for (int col = 0; col < width; col++) {
-        ColorPixel pixel = colorImage.getPixel(row, col);
-        int red = (int) AbstractPixel.validateColorValue(pixel.getRed());
-        int green = (int) AbstractPixel.validateColorValue(pixel.getGreen());
-        int blue = (int) AbstractPixel.validateColorValue(pixel.getBlue());
-        Color newColor = new Color(red, green, blue);
-        bufferedImage.setRGB(col, row, newColor.getRGB());
-      }
-    }
-    return bufferedImage;
+    return util.toBufferedImage(colorImage, BufferedImage.TYPE_INT_RGB);
   }
 }
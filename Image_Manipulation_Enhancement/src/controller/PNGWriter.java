@@ -0,0 +1,366 @@
+package controller;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import model.AbstractPixel;
+import model.BufferedColorImage;
+import model.ColorPixel;
+import model.Image;
+import model.TiledColorImage;
+
+/**
+ * Writes images as 8-bit RGB PNG files, compressing independent chunks of rows in
+ * parallel. Each chunk is filtered, row by row with the filter that gives the smallest
+ * sum of absolute differences, and deflated on its own, primed with the last 32 KB of
+ * the filtered rows before it. All chunks but the last end on a byte boundary, so that
+ * the compressed chunks joined in order form one deflate stream, whose checksum is
+ * combined from the checksums of the chunks. Chunks have a fixed number of rows for a
+ * given width, so the file is the same, byte for byte, however many threads write it.
+ */
+class PNGWriter {
+
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A,
+      '\n'};
+
+  /**
+   * The number of bytes of filtered rows in one chunk, about.
+   */
+  private static final int CHUNK_BYTES = 1 << 18;
+
+  /**
+   * The largest dictionary that deflate uses.
+   */
+  private static final int DICTIONARY_BYTES = 1 << 15;
+
+  private static final int ADLER_BASE = 65521;
+
+  private final WritableByteChannel channel;
+  private final int level;
+  private final Executor executor;
+  private final int window;
+  private long adler;
+
+  /**
+   * Constructs a writer to a channel.
+   *
+   * @param channel  the channel to write to.
+   * @param level    the compression level, from 0 for none to 9 for the smallest file.
+   * @param executor the executor that compresses the chunks.
+   * @param window   the number of chunks compressed ahead of the one being written.
+   */
+  PNGWriter(WritableByteChannel channel, int level, Executor executor, int window) {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("Compression level should be between 0 and 9.");
+    }
+    this.channel = channel;
+    this.level = level;
+    this.executor = executor;
+    this.window = Math.max(1, window);
+  }
+
+  /**
+   * Writes an image as a PNG file, with its channels truncated to whole levels.
+   *
+   * @param image the image to write.
+   * @throws IOException if the channel cannot be written.
+   */
+  void write(Image image) throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("PNG images should be at least one pixel wide "
+              + "and high.");
+    }
+    write(ByteBuffer.wrap(SIGNATURE));
+    ByteBuffer header = ByteBuffer.allocate(13);
+    // 8 bits per sample, truecolor, deflate, adaptive filtering, no interlace
+    header.putInt(width).putInt(height).put((byte) 8).put((byte) 2).put((byte) 0)
+            .put((byte) 0).put((byte) 0);
+    writeChunk("IHDR", header.array(), 0, header.position());
+
+    int chunkRows = Math.max(1, CHUNK_BYTES / (3 * width + 1));
+    adler = 1;
+    Deque<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+    try {
+      for (int start = 0; start < height; start += chunkRows) {
+        int from = start;
+        int to = Math.min(height, start + chunkRows);
+        if (pending.size() == window) {
+          writeData(pending.removeFirst().join());
+        }
+        pending.addLast(CompletableFuture.supplyAsync(
+            () -> compress(image, from, to, to == height), executor));
+      }
+      while (!pending.isEmpty()) {
+        writeData(pending.removeFirst().join());
+      }
+    } finally {
+      for (CompletableFuture<Chunk> chunk : pending) {
+        chunk.cancel(false);
+      }
+    }
+    writeChunk("IEND", new byte[0], 0, 0);
+  }
+
+  /**
+   * Writes a compressed chunk as an IDAT chunk, after the zlib header if it is the first
+   * and followed by the checksum of the whole stream if it is the last.
+   */
+  private void writeData(Chunk chunk) throws IOException {
+    boolean first = chunk.from == 0;
+    byte[] data = new byte[chunk.data.length + (first ? 2 : 0) + (chunk.last ? 4 : 0)];
+    int length = 0;
+    if (first) {
+      data[length++] = 0x78;
+      data[length++] = (byte) zlibFlags();
+    }
+    System.arraycopy(chunk.data, 0, data, length, chunk.data.length);
+    length += chunk.data.length;
+    adler = combineAdler(adler, chunk.adler, chunk.length);
+    if (chunk.last) {
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        data[length++] = (byte) (adler >>> shift);
+      }
+    }
+    writeChunk("IDAT", data, 0, length);
+  }
+
+  /**
+   * The second byte of the zlib header, which tells the level that the stream was
+   * compressed with and makes the header a multiple of 31.
+   */
+  private int zlibFlags() {
+    if (level <= 1) {
+      return 0x01;
+    } else if (level <= 5) {
+      return 0x5E;
+    } else if (level == 6) {
+      return 0x9C;
+    }
+    return 0xDA;
+  }
+
+  /**
+   * The compressed bytes of a chunk of rows, with the checksum and length of its filtered
+   * rows, the first of its rows and whether it is the last chunk.
+   */
+  private static final class Chunk {
+    private final int from;
+    private final boolean last;
+    private final byte[] data;
+    private final long adler;
+    private final int length;
+
+    private Chunk(int from, boolean last, byte[] data, long adler, int length) {
+      this.from = from;
+      this.last = last;
+      this.data = data;
+      this.adler = adler;
+      this.length = length;
+    }
+  }
+
+  /**
+   * Filters and deflates a chunk of rows, priming the deflater with the filtered rows
+   * before it.
+   */
+  private Chunk compress(Image image, int from, int to, boolean last) {
+    int width = image.getWidth();
+    int rowBytes = 3 * width + 1;
+    int dictionaryRows = from == 0 ? 0
+            : Math.min(from, (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+    int first = from - dictionaryRows;
+    byte[] filtered = new byte[(to - first) * rowBytes];
+    int[] pixels = new int[width];
+    byte[] previous = new byte[3 * width];
+    byte[] current = new byte[3 * width];
+    if (first > 0) {
+      samples(image, first - 1, pixels, previous);
+    }
+    for (int row = first; row < to; row++) {
+      samples(image, row, pixels, current);
+      // the row above the first is taken as black
+      filter(current, previous, filtered, (row - first) * rowBytes);
+      byte[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+
+    int offset = dictionaryRows * rowBytes;
+    int length = filtered.length - offset;
+    Deflater deflater = new Deflater(level, true);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+    try {
+      if (dictionaryRows > 0) {
+        int dictionary = Math.min(DICTIONARY_BYTES, offset);
+        deflater.setDictionary(filtered, offset - dictionary, dictionary);
+      }
+      deflater.setInput(filtered, offset, length);
+      byte[] buffer = new byte[1 << 16];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          int count = deflater.deflate(buffer);
+          out.write(buffer, 0, count);
+        }
+      } else {
+        // a sync flush ends the chunk on a byte boundary without ending the stream
+        int count;
+        do {
+          count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          out.write(buffer, 0, count);
+        } while (count == buffer.length);
+      }
+    } finally {
+      deflater.end();
+    }
+    Adler32 adler = new Adler32();
+    adler.update(filtered, offset, length);
+    return new Chunk(from, last, out.toByteArray(), adler.getValue(), length);
+  }
+
+  /**
+   * Reads a row of an image as red, green and blue bytes.
+   */
+  private static void samples(Image image, int row, int[] pixels, byte[] samples) {
+    int width = pixels.length;
+    if (image instanceof BufferedColorImage) {
+      BufferedImage buffered = ((BufferedColorImage) image).getBufferedImage();
+      buffered.getRaster().getDataElements(0, row, width, 1, pixels);
+    } else if (image instanceof TiledColorImage) {
+      TiledColorImage tiled = (TiledColorImage) image;
+      for (int j = 0; j < width; j++) {
+        pixels[j] = tiled.getRGB(row, j);
+      }
+    } else {
+      for (int j = 0; j < width; j++) {
+        ColorPixel pixel = image.getPixel(row, j);
+        pixels[j] = ((int) AbstractPixel.validateColorValue(pixel.getRed()) << 16)
+                | ((int) AbstractPixel.validateColorValue(pixel.getGreen()) << 8)
+                | (int) AbstractPixel.validateColorValue(pixel.getBlue());
+      }
+    }
+    for (int j = 0; j < width; j++) {
+      samples[3 * j] = (byte) (pixels[j] >> 16);
+      samples[3 * j + 1] = (byte) (pixels[j] >> 8);
+      samples[3 * j + 2] = (byte) pixels[j];
+    }
+  }
+
+  /**
+   * Filters a row with each of the five filters and keeps the one whose bytes, taken as
+   * signed, have the smallest sum of absolute values.
+   */
+  private static void filter(byte[] row, byte[] above, byte[] out, int offset) {
+    long[] sums = new long[5];
+    for (int i = 0; i < row.length; i++) {
+      int x = row[i] & 0xFF;
+      int a = i >= 3 ? row[i - 3] & 0xFF : 0;
+      int b = above[i] & 0xFF;
+      int c = i >= 3 ? above[i - 3] & 0xFF : 0;
+      sums[0] += Math.abs((byte) x);
+      sums[1] += Math.abs((byte) (x - a));
+      sums[2] += Math.abs((byte) (x - b));
+      sums[3] += Math.abs((byte) (x - ((a + b) >> 1)));
+      sums[4] += Math.abs((byte) (x - paeth(a, b, c)));
+    }
+    int best = 0;
+    for (int type = 1; type < 5; type++) {
+      if (sums[type] < sums[best]) {
+        best = type;
+      }
+    }
+    out[offset] = (byte) best;
+    for (int i = 0; i < row.length; i++) {
+      int x = row[i] & 0xFF;
+      int a = i >= 3 ? row[i - 3] & 0xFF : 0;
+      int b = above[i] & 0xFF;
+      int c = i >= 3 ? above[i - 3] & 0xFF : 0;
+      int predicted;
+      switch (best) {
+        case 1:
+          predicted = a;
+          break;
+        case 2:
+          predicted = b;
+          break;
+        case 3:
+          predicted = (a + b) >> 1;
+          break;
+        case 4:
+          predicted = paeth(a, b, c);
+          break;
+        default:
+          predicted = 0;
+          break;
+      }
+      out[offset + 1 + i] = (byte) (x - predicted);
+    }
+  }
+
+  private static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    return pb <= pc ? b : c;
+  }
+
+  /**
+   * Combines the Adler-32 checksums of two runs of bytes into that of the two joined, as
+   * zlib does.
+   */
+  static long combineAdler(long first, long second, long secondLength) {
+    long remainder = secondLength % ADLER_BASE;
+    long sum1 = first & 0xFFFF;
+    long sum2 = (remainder * sum1) % ADLER_BASE;
+    sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+    sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum1 >= ADLER_BASE) {
+      sum1 -= ADLER_BASE;
+    }
+    if (sum2 >= 2L * ADLER_BASE) {
+      sum2 -= 2L * ADLER_BASE;
+    }
+    if (sum2 >= ADLER_BASE) {
+      sum2 -= ADLER_BASE;
+    }
+    return sum1 | (sum2 << 16);
+  }
+
+  private void writeChunk(String type, byte[] data, int offset, int length)
+          throws IOException {
+    byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(name);
+    crc.update(data, offset, length);
+    ByteBuffer buffer = ByteBuffer.allocate(12 + length);
+    buffer.putInt(length).put(name).put(data, offset, length).putInt((int) crc.getValue());
+    buffer.flip();
+    write(buffer);
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
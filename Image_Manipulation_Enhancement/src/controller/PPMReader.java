@@ -0,0 +1,301 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.BiFunction;
+
+import model.ColorImage;
+import model.ColorPixel;
+
+/**
+ * Reads PPM and PGM images, both plain (P3, P2) and binary (P6, P5), from a channel.
+ * Plain samples are tokenized from the bytes directly, without building strings.
+ * Comments, which run from a '#' to the end of the line, are skipped wherever whitespace
+ * is allowed. Samples are scaled from the maximum value of the file to 0-255, keeping
+ * the fractions of files with more than 8 bits per sample.
+ */
+class PPMReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final ReadableByteChannel channel;
+  private final BiFunction<Integer, Integer, ColorImage> images;
+  private final PrintStream out;
+  private final byte[] bytes = new byte[BUFFER_SIZE];
+  private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+  private int position;
+  private int limit;
+  private boolean binary;
+  private boolean grey;
+  private int width;
+  private int height;
+  private int maxValue;
+
+  /**
+   * Constructs a reader over a channel positioned at the start of a PPM image.
+   *
+   * @param channel the channel to read from.
+   */
+  PPMReader(ReadableByteChannel channel) {
+    this(channel, ColorImage::new);
+  }
+
+  /**
+   * Constructs a reader over a channel positioned at the start of a PPM image, that reads
+   * the image into one made by the given function of its height and width.
+   *
+   * @param channel the channel to read from.
+   * @param images  the function that makes a black image of a height and a width.
+   */
+  PPMReader(ReadableByteChannel channel, BiFunction<Integer, Integer, ColorImage> images) {
+    this(channel, images, System.out);
+  }
+
+  /**
+   * Constructs a reader over a channel positioned at the start of a PPM image, that reads
+   * the image into one made by the given function of its height and width and reports on
+   * the file to the given stream.
+   *
+   * @param channel the channel to read from.
+   * @param images  the function that makes a black image of a height and a width.
+   * @param out     the stream that messages about the file are printed to.
+   */
+  PPMReader(ReadableByteChannel channel, BiFunction<Integer, Integer, ColorImage> images,
+            PrintStream out) {
+    this.channel = channel;
+    this.images = images;
+    this.out = out;
+  }
+
+  /**
+   * Reads the header and all the samples of an image.
+   *
+   * @return the image read.
+   * @throws IOException if the channel cannot be read or the image is malformed.
+   */
+  ColorImage read() throws IOException {
+    readHeader();
+    ColorImage image = images.apply(height, width);
+    readRows(image, 0, height);
+    return image;
+  }
+
+  /**
+   * Reads the header of an image, leaving the channel at its first sample.
+   *
+   * @throws IOException if the channel cannot be read or the header is malformed.
+   */
+  void readHeader() throws IOException {
+    readSize();
+    out.println("Maximum value of a color in this file (usually 255): " + maxValue);
+    if (binary) {
+      // exactly one whitespace byte separates the header from the samples
+      nextByte();
+    }
+  }
+
+  /**
+   * Reads the header of an image up to its maximum value, without reporting it.
+   *
+   * @throws IOException if the channel cannot be read or the header is malformed.
+   */
+  void readSize() throws IOException {
+    String magic = nextToken();
+    binary = magic.equals("P6") || magic.equals("P5");
+    grey = magic.equals("P2") || magic.equals("P5");
+    if (!binary && !grey && !magic.equals("P3")) {
+      out.println("Invalid PPM file: plain RAW file should begin with P3");
+    }
+    width = nextInt();
+    height = nextInt();
+    maxValue = nextInt();
+    if (maxValue < 1 || maxValue > 65535) {
+      throw new IOException("Invalid PPM file: maximum value should be between 1 and 65535");
+    }
+  }
+
+  /**
+   * Returns the width of the image, once its header has been read.
+   *
+   * @return the width in pixels.
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the image, once its header has been read.
+   *
+   * @return the height in pixels.
+   */
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Reads the next rows of samples of an image into consecutive rows of another image.
+   *
+   * @param image the image to read the rows into.
+   * @param first the row of that image to read the first of them into.
+   * @param count the number of rows to read.
+   * @throws IOException if the channel cannot be read or ends before the rows do.
+   */
+  void readRows(ColorImage image, int first, int count) throws IOException {
+    if (binary) {
+      readBinary(image, first, count);
+      return;
+    }
+    double scale = 255.0 / maxValue;
+    for (int i = first; i < first + count; i++) {
+      for (int j = 0; j < width; j++) {
+        if (grey) {
+          double value = maxValue == 255 ? nextInt() : nextInt() * scale;
+          image.setPixel(i, j, new ColorPixel(value, value, value));
+        } else if (maxValue == 255) {
+          image.setPixel(i, j, new ColorPixel(nextInt(), nextInt(), nextInt()));
+        } else {
+          double r = nextInt() * scale;
+          double g = nextInt() * scale;
+          double b = nextInt() * scale;
+          image.setPixel(i, j, new ColorPixel(r, g, b));
+        }
+      }
+    }
+  }
+
+  private void readBinary(ColorImage image, int first, int count) throws IOException {
+    int channels = grey ? 1 : 3;
+    int sampleBytes = maxValue > 255 ? 2 : 1;
+    byte[] row = new byte[width * channels * sampleBytes];
+    double scale = 255.0 / maxValue;
+    double[] samples = new double[channels];
+
+    for (int i = first; i < first + count; i++) {
+      readFully(row);
+      int offset = 0;
+      for (int j = 0; j < width; j++) {
+        for (int c = 0; c < channels; c++) {
+          int sample;
+          if (sampleBytes == 2) {
+            sample = ((row[offset] & 0xFF) << 8) | (row[offset + 1] & 0xFF);
+          } else {
+            sample = row[offset] & 0xFF;
+          }
+          offset += sampleBytes;
+          samples[c] = maxValue == 255 ? sample : sample * scale;
+        }
+        if (channels == 1) {
+          image.setPixel(i, j, new ColorPixel(samples[0], samples[0], samples[0]));
+        } else {
+          image.setPixel(i, j, new ColorPixel(samples[0], samples[1], samples[2]));
+        }
+      }
+    }
+  }
+
+  private void readFully(byte[] destination) throws IOException {
+    int copied = 0;
+    while (copied < destination.length) {
+      if (position == limit && !fill()) {
+        throw new IOException("Invalid PPM file: the file ends before its last sample");
+      }
+      int count = Math.min(limit - position, destination.length - copied);
+      System.arraycopy(bytes, position, destination, copied, count);
+      position += count;
+      copied += count;
+    }
+  }
+
+  /**
+   * Returns the next token, which is a run of characters other than whitespace.
+   *
+   * @return the next token.
+   * @throws IOException if the channel cannot be read or has no more tokens.
+   */
+  String nextToken() throws IOException {
+    int c = skipSeparators();
+    StringBuilder token = new StringBuilder();
+    while (c != -1 && !isWhitespace(c) && c != '#') {
+      token.append((char) c);
+      c = nextByte();
+    }
+    pushBack(c);
+    return token.toString();
+  }
+
+  /**
+   * Returns the next token as a non-negative decimal integer.
+   *
+   * @return the next integer.
+   * @throws IOException if the channel cannot be read or the next token is not a number.
+   */
+  int nextInt() throws IOException {
+    int c = skipSeparators();
+    if (c < '0' || c > '9') {
+      throw new IOException("Invalid PPM file: expected a number but found "
+              + (c == -1 ? "the end of the file" : "'" + (char) c + "'"));
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      c = nextByte();
+    }
+    pushBack(c);
+    return value;
+  }
+
+  /**
+   * Skips whitespace and comments, and returns the first byte after them, or -1 at the
+   * end of the channel.
+   */
+  private int skipSeparators() throws IOException {
+    int c = nextByte();
+    while (true) {
+      if (c == '#') {
+        while (c != -1 && c != '\n' && c != '\r') {
+          c = nextByte();
+        }
+      } else if (c != -1 && isWhitespace(c)) {
+        c = nextByte();
+      } else {
+        return c;
+      }
+    }
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+  }
+
+  private int nextByte() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return bytes[position++] & 0xFF;
+  }
+
+  private void pushBack(int c) {
+    if (c != -1) {
+      position--;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    buffer.clear();
+    int read;
+    do {
+      read = channel.read(buffer);
+    } while (read == 0);
+    position = 0;
+    limit = Math.max(0, read);
+    return read > 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
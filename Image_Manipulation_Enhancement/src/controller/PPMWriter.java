@@ -0,0 +1,249 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+import model.AbstractPixel;
+import model.ColorPixel;
+import model.Image;
+
+/**
+ * Writes plain PPM (P3), binary PPM (P6) and binary PGM (P5) images to a channel, either
+ * whole or a few rows at a time. Plain rows of a whole image are formatted into bytes in
+ * chunks, in parallel for large images, and written in order. Samples are truncated to
+ * whole levels for a maximum value of 255, and rounded to the nearest level for any other
+ * maximum value, which keeps the fractions of the pixels in 16-bit files. PGM files hold
+ * the luma of each pixel that is not already grey.
+ */
+class PPMWriter {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The number of samples formatted by one plain chunk, about 1 MB of text.
+   */
+  private static final int CHUNK_SAMPLES = 1 << 18;
+
+  private final WritableByteChannel channel;
+  private String format;
+  private int maxValue;
+  private int sampleBytes;
+  private int rowBytes;
+  private ByteBuffer buffer;
+
+  /**
+   * Constructs a writer to a channel.
+   *
+   * @param channel the channel to write to.
+   */
+  PPMWriter(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Writes an image as a plain PPM file with a maximum value of 255.
+   *
+   * @param image the image to write.
+   * @throws IOException if the channel cannot be written.
+   */
+  void writePlain(Image image) throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    writeHeader("P3", width, height, 255);
+    int chunkRows = Math.max(1, CHUNK_SAMPLES / Math.max(1, 3 * width));
+    if (height <= chunkRows) {
+      writeRows(image, 0, height);
+      finish();
+      return;
+    }
+    drain(buffer);
+
+    // a bounded window of chunks is formatted ahead of the one being written
+    int window = 2 * Runtime.getRuntime().availableProcessors();
+    Deque<CompletableFuture<ByteBuffer>> pending = new ArrayDeque<>();
+    try {
+      for (int start = 0; start < height; start += chunkRows) {
+        int first = start;
+        int last = Math.min(height, start + chunkRows);
+        if (pending.size() == window) {
+          write(pending.removeFirst().join());
+        }
+        pending.addLast(CompletableFuture.supplyAsync(() -> formatRows(image, first, last)));
+      }
+      while (!pending.isEmpty()) {
+        write(pending.removeFirst().join());
+      }
+    } finally {
+      for (CompletableFuture<ByteBuffer> chunk : pending) {
+        chunk.cancel(false);
+      }
+    }
+  }
+
+  private static ByteBuffer formatRows(Image image, int first, int last) {
+    int width = image.getWidth();
+    // each sample takes at most three digits and a space, each row a newline
+    byte[] text = new byte[(last - first) * (width * 3 * 4 + 1)];
+    int length = 0;
+    for (int row = first; row < last; row++) {
+      for (int col = 0; col < width; col++) {
+        ColorPixel pixel = image.getPixel(row, col);
+        length = putDecimal(text, length,
+                (int) AbstractPixel.validateColorValue(pixel.getRed()));
+        length = putDecimal(text, length,
+                (int) AbstractPixel.validateColorValue(pixel.getGreen()));
+        length = putDecimal(text, length,
+                (int) AbstractPixel.validateColorValue(pixel.getBlue()));
+      }
+      text[length++] = '\n';
+    }
+    return ByteBuffer.wrap(text, 0, length);
+  }
+
+  private static int putDecimal(byte[] text, int offset, int value) {
+    if (value >= 100) {
+      text[offset++] = (byte) ('0' + value / 100);
+    }
+    if (value >= 10) {
+      text[offset++] = (byte) ('0' + value / 10 % 10);
+    }
+    text[offset++] = (byte) ('0' + value % 10);
+    text[offset++] = ' ';
+    return offset;
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Writes an image in a binary format.
+   *
+   * @param image    the image to write.
+   * @param format   "P6" for a color image or "P5" for a greyscale image.
+   * @param maxValue the largest sample value, between 1 and 65535.
+   * @throws IOException if the channel cannot be written.
+   */
+  void writeBinary(Image image, String format, int maxValue) throws IOException {
+    if (!format.equals("P6") && !format.equals("P5")) {
+      throw new IllegalArgumentException("Binary format should be P6 or P5.");
+    }
+    writeHeader(format, image.getWidth(), image.getHeight(), maxValue);
+    writeRows(image, 0, image.getHeight());
+    finish();
+  }
+
+  /**
+   * Checks that a format and a maximum value can be written, before anything is.
+   *
+   * @param format   "P3" for plain PPM, "P6" for binary PPM or "P5" for binary PGM.
+   * @param maxValue the largest sample value, which is 255 for plain PPM and between 1
+   *                 and 65535 for the binary formats.
+   * @throws IllegalArgumentException if the format or the maximum value is not valid.
+   */
+  static void checkFormat(String format, int maxValue) {
+    if (!format.equals("P3") && !format.equals("P6") && !format.equals("P5")) {
+      throw new IllegalArgumentException("Format should be P3, P6 or P5.");
+    }
+    if (format.equals("P3") && maxValue != 255) {
+      throw new IllegalArgumentException("Plain PPM files are saved with a maximum of 255.");
+    }
+    if (maxValue < 1 || maxValue > 65535) {
+      throw new IllegalArgumentException("Maximum value should be between 1 and 65535.");
+    }
+  }
+
+  /**
+   * Starts an image that is written a few rows at a time, by writing its header. The rows
+   * follow with {@link #writeRows} and the image ends with {@link #finish}.
+   *
+   * @param format   "P3" for plain PPM, "P6" for binary PPM or "P5" for binary PGM.
+   * @param width    the width of the image in pixels.
+   * @param height   the height of the image in pixels.
+   * @param maxValue the largest sample value, which is 255 for plain PPM and between 1
+   *                 and 65535 for the binary formats.
+   * @throws IOException if the channel cannot be written.
+   */
+  void writeHeader(String format, int width, int height, int maxValue) throws IOException {
+    checkFormat(format, maxValue);
+    this.format = format;
+    this.maxValue = maxValue;
+    int channels = format.equals("P5") ? 1 : 3;
+    this.sampleBytes = maxValue > 255 ? 2 : 1;
+    this.rowBytes = width * channels * sampleBytes;
+    String header = format + "\n" + width + " " + height + "\n" + maxValue + "\n";
+    buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, rowBytes));
+    buffer.put(header.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Writes consecutive rows of an image after the header or the rows written before them.
+   *
+   * @param image the image that holds the rows.
+   * @param first the first row to write.
+   * @param last  the row after the last row to write.
+   * @throws IOException if the channel cannot be written.
+   */
+  void writeRows(Image image, int first, int last) throws IOException {
+    if (format.equals("P3")) {
+      drain(buffer);
+      write(formatRows(image, first, last));
+      return;
+    }
+    for (int row = first; row < last; row++) {
+      if (buffer.remaining() < rowBytes) {
+        drain(buffer);
+      }
+      for (int col = 0; col < image.getWidth(); col++) {
+        ColorPixel pixel = image.getPixel(row, col);
+        if (format.equals("P5")) {
+          putSample(buffer, grey(pixel), maxValue, sampleBytes);
+        } else {
+          putSample(buffer, pixel.getRed(), maxValue, sampleBytes);
+          putSample(buffer, pixel.getGreen(), maxValue, sampleBytes);
+          putSample(buffer, pixel.getBlue(), maxValue, sampleBytes);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes what is left of an image that was written a few rows at a time.
+   *
+   * @throws IOException if the channel cannot be written.
+   */
+  void finish() throws IOException {
+    drain(buffer);
+  }
+
+  private static double grey(ColorPixel pixel) {
+    if (pixel.getRed() == pixel.getGreen() && pixel.getGreen() == pixel.getBlue()) {
+      return pixel.getRed();
+    }
+    return 0.2126 * pixel.getRed() + 0.7152 * pixel.getGreen() + 0.0722 * pixel.getBlue();
+  }
+
+  private static void putSample(ByteBuffer buffer, double value, int maxValue,
+                                int sampleBytes) {
+    double level = AbstractPixel.validateColorValue(value);
+    int sample = maxValue == 255 ? (int) level : (int) Math.round(level * maxValue / 255);
+    if (sampleBytes == 2) {
+      buffer.putShort((short) sample);
+    } else {
+      buffer.put((byte) sample);
+    }
+  }
+
+  private void drain(ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    write(buffer);
+    buffer.clear();
+  }
+}
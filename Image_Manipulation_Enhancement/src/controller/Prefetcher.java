@@ -0,0 +1,134 @@
+package controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+
+import model.LazyColorImage;
+
+/**
+ * Decodes the images that the load commands further down a script will register, on a
+ * few background threads, while the commands before them run. The images that have been
+ * started but not yet registered by their load command are estimated to take no more
+ * than a memory budget together, which caps how far ahead of the script decoding runs.
+ *
+ * <p>The images are the same lazy images that the load commands would register: a
+ * command that uses one before it is decoded waits for its decoding to finish, and one
+ * whose decoding failed is decoded again, which reports the failure where it is used.
+ */
+class Prefetcher {
+
+  /**
+   * Estimated bytes per pixel of an image decoded from a PPM or PGM file, which is held
+   * as pixel objects, and from any other file, which is held as packed integers.
+   */
+  private static final long PPM_PIXEL_BYTES = 48;
+  private static final long PACKED_PIXEL_BYTES = 4;
+
+  private final ImageUtil util;
+  private final long memoryBudget;
+  private final ExecutorService pool;
+  private final Map<Integer, LazyColorImage> images = new HashMap<>();
+  private final Map<Integer, Long> sizes = new HashMap<>();
+  private final List<Future<?>> decodings = new ArrayList<>();
+  private long reserved;
+  private int scanned;
+
+  /**
+   * Constructs a prefetcher that decodes images on a pool of background threads.
+   *
+   * @param util         the utility that opens and decodes the images.
+   * @param threads      the number of images decoded at once.
+   * @param memoryBudget the estimated bytes of images decoded ahead of their load commands.
+   */
+  Prefetcher(ImageUtil util, int threads, long memoryBudget) {
+    this.util = util;
+    this.memoryBudget = memoryBudget;
+    this.pool = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "prefetch");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts decoding the images of the load commands after the one about to run, in order,
+   * until the budget is reached. A command that is not worth decoding ahead is passed
+   * over, and none is decoded past a tiling command before it runs, since it changes how
+   * the images after it are decoded.
+   *
+   * @param commands the lines of the script.
+   * @param index    the index of the command about to run.
+   * @param worthIt  tells whether the load command at an index may be decoded ahead now.
+   */
+  void advance(List<String> commands, int index, IntPredicate worthIt) {
+    if (isTiling(commands.get(index))) {
+      return;
+    }
+    for (scanned = Math.max(scanned, index + 1); scanned < commands.size(); scanned++) {
+      String[] tokens = commands.get(scanned).trim().split("\\s+");
+      if (tokens[0].equals("tiling")) {
+        return;
+      }
+      if (!tokens[0].equals("load") || tokens.length != 3 || !worthIt.test(scanned)) {
+        continue;
+      }
+      LazyColorImage image;
+      try {
+        image = util.openImage(tokens[1]);
+      } catch (IOException | RuntimeException e) {
+        // the load command reports it
+        continue;
+      }
+      boolean ppm = tokens[1].endsWith(".ppm") || tokens[1].endsWith(".pgm");
+      long size = (long) image.getHeight() * image.getWidth()
+              * (ppm ? PPM_PIXEL_BYTES : PACKED_PIXEL_BYTES);
+      if (size > memoryBudget) {
+        continue;
+      }
+      if (reserved + size > memoryBudget) {
+        // tried again once earlier images are registered
+        return;
+      }
+      reserved += size;
+      images.put(scanned, image);
+      sizes.put(scanned, size);
+      decodings.add(pool.submit(image::getImage));
+    }
+  }
+
+  private static boolean isTiling(String command) {
+    return command.trim().split("\\s+")[0].equals("tiling");
+  }
+
+  /**
+   * Returns the image that the load command at an index registers, if it was started.
+   *
+   * @param index the index of the load command.
+   * @return the image, which may still be decoding, or null if it was not started.
+   */
+  LazyColorImage take(int index) {
+    LazyColorImage image = images.remove(index);
+    if (image != null) {
+      reserved -= sizes.remove(index);
+    }
+    return image;
+  }
+
+  /**
+   * Cancels the decoding of images that have not started, and lets the threads end once
+   * the others are done.
+   */
+  void close() {
+    for (Future<?> decoding : decodings) {
+      decoding.cancel(false);
+    }
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,120 @@
+package controller;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Batches the requests that ask for the same processing of the same body, so that the
+ * body is processed once for all of them. A request joins the batch of its key and body
+ * that is waiting for a worker, if there is one, or starts a new batch otherwise. Batches
+ * only grow while the workers are busy, so an idle pool runs every request at once, and
+ * distinct bodies are separate batches that the workers of the pool run in parallel.
+ */
+class RequestBatcher {
+
+  private final Executor workers;
+  private final Map<List<Object>, Batch> waiting = new HashMap<>();
+  private final AtomicLong processed = new AtomicLong();
+
+  /**
+   * Constructs a batcher that runs its batches on a pool of workers.
+   *
+   * @param workers the pool that runs the batches.
+   */
+  RequestBatcher(Executor workers) {
+    this.workers = workers;
+  }
+
+  /**
+   * Submits a request to the batch of its key and body.
+   *
+   * @param key     the key of the processing, the same for requests that are processed
+   *                the same way.
+   * @param body    the body of the request.
+   * @param process the processing of the body, which is called once per batch, with the
+   *                function of the request that started the batch.
+   * @return the result of processing the body, or the exception the processing threw.
+   */
+  CompletableFuture<byte[]> submit(String key, byte[] body, Function<byte[], byte[]> process) {
+    CompletableFuture<byte[]> result = new CompletableFuture<>();
+    // a byte buffer compares the body by content
+    List<Object> id = Arrays.asList(key, ByteBuffer.wrap(body));
+    Batch started = null;
+    synchronized (waiting) {
+      Batch batch = waiting.get(id);
+      if (batch == null) {
+        batch = new Batch(body, process);
+        waiting.put(id, batch);
+        started = batch;
+      }
+      batch.results.add(result);
+    }
+    if (started != null) {
+      Batch batch = started;
+      try {
+        workers.execute(() -> run(id, batch));
+      } catch (RejectedExecutionException e) {
+        synchronized (waiting) {
+          // nothing joins the batch once it is removed, and those that did are failed
+          waiting.remove(id, batch);
+          for (CompletableFuture<byte[]> joined : batch.results) {
+            joined.completeExceptionally(e);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of batches processed so far.
+   *
+   * @return the number of times a processing function was called.
+   */
+  long processed() {
+    return processed.get();
+  }
+
+  private void run(List<Object> id, Batch batch) {
+    List<CompletableFuture<byte[]>> results;
+    synchronized (waiting) {
+      // nothing joins the batch from now on
+      waiting.remove(id, batch);
+      results = new ArrayList<>(batch.results);
+    }
+    processed.incrementAndGet();
+    try {
+      byte[] bytes = batch.process.apply(batch.body);
+      for (CompletableFuture<byte[]> result : results) {
+        result.complete(bytes);
+      }
+    } catch (RuntimeException | Error e) {
+      for (CompletableFuture<byte[]> result : results) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * The requests that wait for the processing of a body.
+   */
+  private static final class Batch {
+    private final byte[] body;
+    private final Function<byte[], byte[]> process;
+    private final List<CompletableFuture<byte[]>> results = new ArrayList<>();
+
+    private Batch(byte[] body, Function<byte[], byte[]> process) {
+      this.body = body;
+      this.process = process;
+    }
+  }
+}
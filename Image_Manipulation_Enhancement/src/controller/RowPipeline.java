@@ -0,0 +1,186 @@
+package controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import model.ColorImage;
+import model.ColorPixel;
+import model.Image;
+
+/**
+ * A chain of operations that is applied to an image as it streams from a PPM file to
+ * another, a strip of rows at a time, so that the image is never held whole. Every
+ * operation only needs the rows of its input within a halo of the rows it produces: none
+ * for point operations, and half the kernel height for convolutions.
+ *
+ * <p>Each operation keeps the rows of its input it may still need in a ring of
+ * {@link #STRIP_ROWS} rows plus twice its halo, cuts a strip with the halo out of them,
+ * applies the operation to it as a small image and passes the rows in the middle of the
+ * result on. Memory is proportional to the width of the image times the strip and kernel
+ * heights, whatever the height of the image.
+ */
+class RowPipeline {
+
+  /**
+   * The number of rows that an operation produces at a time.
+   */
+  static final int STRIP_ROWS = 16;
+
+  private final List<Integer> halos = new ArrayList<>();
+  private final List<UnaryOperator<Image>> operations = new ArrayList<>();
+
+  /**
+   * Adds an operation at the end of the chain.
+   *
+   * @param halo      the number of rows above and below a row of the result that the
+   *                  operation reads.
+   * @param operation the operation, which keeps the size of the image.
+   */
+  void add(int halo, UnaryOperator<Image> operation) {
+    halos.add(halo);
+    operations.add(operation);
+  }
+
+  /**
+   * Reads an image, applies the chain of operations to it and writes the result.
+   *
+   * @param reader   the reader of the image.
+   * @param writer   the writer of the result.
+   * @param format   the format of the result: "P3", "P6" or "P5".
+   * @param maxValue the largest sample value of the result.
+   * @throws IOException if the image cannot be read or the result cannot be written.
+   */
+  void run(PPMReader reader, PPMWriter writer, String format, int maxValue)
+          throws IOException {
+    reader.readHeader();
+    int width = reader.getWidth();
+    int height = reader.getHeight();
+    Rows rows = new Source(reader, width, height);
+    for (int i = 0; i < operations.size(); i++) {
+      rows = new Stage(rows, halos.get(i), operations.get(i), width, height);
+    }
+    writer.writeHeader(format, width, height, maxValue);
+    for (int first = 0; first < height; first += STRIP_ROWS) {
+      int count = Math.min(STRIP_ROWS, height - first);
+      ColorImage strip = new ColorImage(count, width);
+      for (int i = 0; i < count; i++) {
+        ColorPixel[] row = rows.next();
+        for (int j = 0; j < width; j++) {
+          strip.setPixel(i, j, row[j]);
+        }
+      }
+      writer.writeRows(strip, 0, count);
+    }
+    writer.finish();
+  }
+
+  /**
+   * The rows of an image, from top to bottom.
+   */
+  private interface Rows {
+
+    ColorPixel[] next() throws IOException;
+  }
+
+  /**
+   * Reads the rows of a PPM file.
+   */
+  private static final class Source implements Rows {
+
+    private final PPMReader reader;
+    private final int width;
+    private final int height;
+    private ColorImage strip;
+    private int read;
+    private int index;
+
+    Source(PPMReader reader, int width, int height) {
+      this.reader = reader;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public ColorPixel[] next() throws IOException {
+      if (strip == null || index == strip.getHeight()) {
+        int count = Math.min(STRIP_ROWS, height - read);
+        strip = new ColorImage(count, width);
+        reader.readRows(strip, 0, count);
+        read += count;
+        index = 0;
+      }
+      return row(strip, index++, width);
+    }
+  }
+
+  /**
+   * Applies an operation to the rows of its input, a strip at a time.
+   */
+  private static final class Stage implements Rows {
+
+    private final Rows input;
+    private final int halo;
+    private final UnaryOperator<Image> operation;
+    private final int width;
+    private final int height;
+    private final ColorPixel[][] ring;
+    private int read;
+    private int produced;
+    private Image result;
+    private int offset;
+    private int index;
+    private int count;
+
+    Stage(Rows input, int halo, UnaryOperator<Image> operation, int width, int height) {
+      this.input = input;
+      this.halo = halo;
+      this.operation = operation;
+      this.width = width;
+      this.height = height;
+      this.ring = new ColorPixel[STRIP_ROWS + 2 * halo][];
+    }
+
+    @Override
+    public ColorPixel[] next() throws IOException {
+      if (index == count) {
+        nextStrip();
+      }
+      return row(result, offset + index++, width);
+    }
+
+    /**
+     * Reads the input up to the halo below the next strip, which overwrites the rows of
+     * the ring above the halo over it, and applies the operation to the strip.
+     */
+    private void nextStrip() throws IOException {
+      count = Math.min(STRIP_ROWS, height - produced);
+      int top = Math.max(0, produced - halo);
+      int bottom = Math.min(height, produced + count + halo);
+      while (read < bottom) {
+        ring[read % ring.length] = input.next();
+        read++;
+      }
+      ColorImage strip = new ColorImage(bottom - top, width);
+      for (int i = top; i < bottom; i++) {
+        ColorPixel[] row = ring[i % ring.length];
+        for (int j = 0; j < width; j++) {
+          strip.setPixel(i - top, j, row[j]);
+        }
+      }
+      result = operation.apply(strip);
+      offset = produced - top;
+      index = 0;
+      produced += count;
+    }
+  }
+
+  private static ColorPixel[] row(Image image, int row, int width) {
+    ColorPixel[] pixels = new ColorPixel[width];
+    for (int j = 0; j < width; j++) {
+      pixels[j] = image.getPixel(row, j);
+    }
+    return pixels;
+  }
+}
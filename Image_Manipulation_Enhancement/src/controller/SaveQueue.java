@@ -0,0 +1,153 @@
+package controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Saves images on a pool of background threads, so that a script goes on with its next
+ * commands while an image is encoded and written. Saves to the same file are written in
+ * the order they were made, and a command that reads a file first waits for the saves to
+ * it. Only a few saves are queued at once, so a script that saves faster than images are
+ * written waits rather than keeps every image it saved.
+ *
+ * <p>Commands never change an image they have registered, they register a new one, so
+ * the image given to a save is a snapshot of it even if its name is reused later.
+ */
+class SaveQueue {
+
+  private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+  private final ExecutorService pool;
+  private final PrintStream out;
+  private final Semaphore slots;
+  private final Map<String, CompletableFuture<Void>> lastWrites = new HashMap<>();
+  private final Queue<RuntimeException> failures = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Constructs a queue that saves images on a pool of background threads.
+   *
+   * @param threads the number of images saved at once.
+   * @param out     the stream that failed saves are reported to.
+   */
+  SaveQueue(int threads, PrintStream out) {
+    this.out = out;
+    this.pool = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "save");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.slots = new Semaphore(2 * threads);
+  }
+
+  /**
+   * Queues a save of an image to a file, after the saves to the same file queued before.
+   * Waits first if too many saves are queued.
+   *
+   * @param path    the file that the save writes.
+   * @param command the command line of the save, which a failure is reported with.
+   * @param write   the task that encodes and writes the image.
+   */
+  void submit(String path, String command, Runnable write) {
+    slots.acquireUninterruptibly();
+    String key = key(path);
+    Runnable task = () -> {
+      try {
+        write.run();
+      } catch (RuntimeException e) {
+        failures.add(new RuntimeException("Could not save the image of '" + command.trim()
+                + "': " + e.getMessage(), e));
+      } finally {
+        slots.release();
+      }
+    };
+    lastWrites.put(key, lastWrites.getOrDefault(key, DONE).thenRunAsync(task, pool));
+  }
+
+  /**
+   * Tells whether a save to a file is queued or being written.
+   *
+   * @param path the file.
+   * @return true if the file may still change.
+   */
+  boolean isPending(String path) {
+    CompletableFuture<Void> write = lastWrites.get(key(path));
+    return write != null && !write.isDone();
+  }
+
+  /**
+   * Waits for the saves to a file to be written.
+   *
+   * @param path the file.
+   */
+  void await(String path) {
+    CompletableFuture<Void> write = lastWrites.remove(key(path));
+    if (write != null) {
+      write.join();
+    }
+  }
+
+  /**
+   * Waits for every queued save to be written, and reports the saves that failed.
+   *
+   * @throws RuntimeException for the first save that failed since the last report, with
+   *                          its command line in its message.
+   */
+  void flush() {
+    awaitAll();
+    List<RuntimeException> failed = new ArrayList<>();
+    for (RuntimeException failure = failures.poll(); failure != null;
+         failure = failures.poll()) {
+      out.println(failure.getMessage());
+      failed.add(failure);
+    }
+    if (!failed.isEmpty()) {
+      throw failed.get(0);
+    }
+  }
+
+  /**
+   * Waits for every queued save to be written, reports the saves that failed without
+   * throwing, and lets the threads end.
+   */
+  void close() {
+    awaitAll();
+    for (RuntimeException failure = failures.poll(); failure != null;
+         failure = failures.poll()) {
+      out.println(failure.getMessage());
+    }
+    pool.shutdown();
+  }
+
+  private void awaitAll() {
+    for (CompletableFuture<Void> write : lastWrites.values()) {
+      write.join();
+    }
+    lastWrites.clear();
+  }
+
+  /**
+   * Returns the name of a file that is the same whatever path it is given by.
+   *
+   * @param path the path of the file.
+   * @return its canonical path, or its absolute path if that cannot be found.
+   */
+  static String key(String path) {
+    File file = new File(path);
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException e) {
+      return file.getAbsolutePath();
+    }
+  }
+}
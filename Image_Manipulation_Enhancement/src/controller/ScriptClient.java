@@ -0,0 +1,59 @@
+package controller;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Sends a script to a {@link ScriptServer} on this machine and prints what it prints while
+ * it runs the script. The client loads neither the model nor any image code, so that it
+ * starts and exits quickly.
+ */
+public final class ScriptClient {
+
+  private ScriptClient() {
+  }
+
+  /**
+   * Runs a script on the server listening on a Unix-domain socket.
+   *
+   * @param script the path of the script, whose relative paths are resolved against the
+   *               working directory of this process.
+   * @param server the path of the socket of the server.
+   * @param out    the stream that the messages of the script are printed to.
+   * @return 0 if the script ran to its end, or 1 if it failed.
+   * @throws IOException if the script cannot be read or the server cannot be reached.
+   */
+  public static int run(String script, Path server, PrintStream out) throws IOException {
+    try (SocketChannel socket = SocketChannel.open(UnixDomainSocketAddress.of(server))) {
+      Writer writer = new OutputStreamWriter(Channels.newOutputStream(socket),
+              StandardCharsets.UTF_8);
+      writer.write("cwd " + Paths.get("").toAbsolutePath() + "\n");
+      for (String line : Files.readAllLines(Paths.get(script))) {
+        writer.write(line + "\n");
+      }
+      writer.flush();
+      socket.shutdownOutput();
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+              Channels.newInputStream(socket), StandardCharsets.UTF_8));
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        if (line.startsWith(ScriptServer.EXIT)) {
+          return Integer.parseInt(line.substring(ScriptServer.EXIT.length()));
+        }
+        out.println(line);
+      }
+      out.println("The server closed the connection before the script ended.");
+      return 1;
+    }
+  }
+}
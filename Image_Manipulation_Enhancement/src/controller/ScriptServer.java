@@ -0,0 +1,191 @@
+package controller;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import model.BetterImageProcessor;
+
+/**
+ * Runs scripts sent over a Unix-domain socket, on a pool of threads of one long-running
+ * process, so that the scripts share a model and code that has already been loaded and
+ * compiled instead of each starting a new JVM. The socket is in a directory that only the
+ * user who runs the server can enter, so only that user's processes can send scripts,
+ * which read and write files as that user.
+ *
+ * <p>A client sends the line "cwd" followed by its working directory, which the relative
+ * paths of the script are resolved against, then the lines of the script, and then shuts
+ * down its side of the connection. The script is run by a new {@link AdvancedController}
+ * with no images, and the messages it prints are sent back as they are printed. The last
+ * line is "#exit" followed by 0 if the script ran to its end, or 1 if it failed.
+ */
+public class ScriptServer implements Closeable {
+
+  /**
+   * The socket that the server listens on and the client connects to by default.
+   */
+  public static final Path DEFAULT_SOCKET = Paths.get(System.getProperty("user.home"),
+          ".image-scripts", "server.sock");
+
+  /**
+   * The longest wait between attempts to accept a connection after a failure.
+   */
+  private static final long MAX_BACKOFF_MILLIS = 1000;
+
+  /**
+   * The start of the line that ends the response to a script.
+   */
+  static final String EXIT = "#exit ";
+
+  private final BetterImageProcessor model;
+  private final Path path;
+  private final ServerSocketChannel socket;
+  private final ExecutorService pool;
+
+  /**
+   * Constructs a server that listens for scripts on a Unix-domain socket. The directory of
+   * the socket is created if it does not exist, and is made accessible to its owner only.
+   *
+   * @param model   the model that every script is run with.
+   * @param path    the path of the socket.
+   * @param threads the number of scripts run at once; the others wait for their turn.
+   * @throws IOException if the socket cannot be listened on, or another server listens on
+   *                     it.
+   */
+  public ScriptServer(BetterImageProcessor model, Path path, int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads should be at least 1.");
+    }
+    this.model = model;
+    this.path = path.toAbsolutePath();
+    Path directory = Files.createDirectories(this.path.getParent());
+    if (Files.getFileAttributeView(directory, PosixFileAttributeView.class) != null) {
+      Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+    }
+    UnixDomainSocketAddress address = UnixDomainSocketAddress.of(this.path);
+    if (Files.exists(this.path)) {
+      if (listening(address)) {
+        throw new IOException("A server is already listening on " + this.path);
+      }
+      // left by a server that did not close
+      Files.delete(this.path);
+    }
+    this.socket = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    socket.bind(address, 50);
+    this.pool = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "script");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static boolean listening(UnixDomainSocketAddress address) {
+    try (SocketChannel channel = SocketChannel.open(address)) {
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the path of the socket that the server listens on.
+   *
+   * @return the path of the socket.
+   */
+  public Path getSocket() {
+    return path;
+  }
+
+  /**
+   * Accepts connections and runs their scripts until the server is closed. After a failure
+   * to accept one, such as running out of file descriptors, it waits before trying again,
+   * twice as long after each failure in a row, up to a second.
+   */
+  public void serve() {
+    long backoff = 0;
+    while (socket.isOpen()) {
+      SocketChannel connection;
+      try {
+        connection = socket.accept();
+        backoff = 0;
+      } catch (IOException e) {
+        if (!socket.isOpen()) {
+          break;
+        }
+        System.out.println("Could not accept a connection: " + e.getMessage());
+        backoff = Math.min(MAX_BACKOFF_MILLIS, Math.max(10, 2 * backoff));
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        continue;
+      }
+      pool.execute(() -> run(connection));
+    }
+  }
+
+  /**
+   * Stops accepting connections and removes the socket, and lets the threads end once the
+   * scripts that were accepted are done.
+   */
+  @Override
+  public void close() throws IOException {
+    socket.close();
+    Files.deleteIfExists(path);
+    pool.shutdown();
+  }
+
+  private void run(SocketChannel connection) {
+    try (SocketChannel client = connection;
+         BufferedReader in = new BufferedReader(new InputStreamReader(
+                 Channels.newInputStream(client), StandardCharsets.UTF_8));
+         PrintStream out = new PrintStream(Channels.newOutputStream(client), true,
+                 "UTF-8")) {
+      String header = in.readLine();
+      if (header == null || !header.startsWith("cwd ")) {
+        out.println("A script should start with the working directory of the client.");
+        out.println(EXIT + 1);
+        return;
+      }
+      List<String> lines = new ArrayList<>();
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        lines.add(line);
+      }
+      AdvancedController controller = new AdvancedController(model,
+              new ByteArrayInputStream(new byte[0]), out, new HashMap<>());
+      controller.setWorkingDirectory(Paths.get(header.substring(4)));
+      int status = 0;
+      try {
+        controller.executeCommands(new Scanner(String.join("\n", lines)));
+      } catch (RuntimeException e) {
+        out.println("Error: " + e);
+        status = 1;
+      }
+      out.println(EXIT + status);
+    } catch (IOException e) {
+      // the client went away, and nobody is left to tell
+    }
+  }
+}
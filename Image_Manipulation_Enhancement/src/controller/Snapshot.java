@@ -0,0 +1,145 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import model.AbstractPixel;
+import model.ColorPixel;
+import model.Image;
+import model.PlanarColorImage;
+
+/**
+ * Reads and writes image snapshots, a raw format that is opened by mapping it into memory
+ * rather than by decoding it. A snapshot is a 16-byte header, the magic bytes "IMGSNAP1"
+ * followed by the height and the width as big-endian integers, and then the red, green
+ * and blue planes of the image, each one byte per pixel in row order.
+ */
+class Snapshot {
+
+  private static final byte[] MAGIC = "IMGSNAP1".getBytes(StandardCharsets.US_ASCII);
+  private static final int HEADER_SIZE = 16;
+  private static final int CHUNK_SIZE = 1 << 18;
+
+  private Snapshot() {
+  }
+
+  /**
+   * Opens a snapshot as an image whose planes are mapped from the file. Nothing but the
+   * header is read until pixels are used, and changes to the image are never written
+   * back to the file. A file that cannot be opened for writing is mapped read-only, so its
+   * image cannot be changed.
+   *
+   * @param path the snapshot file.
+   * @return the image in the snapshot.
+   * @throws IOException if the file cannot be read or is not a complete snapshot.
+   */
+  static PlanarColorImage map(Path path) throws IOException {
+    // a private mapping needs a writable channel, though it never writes to the file
+    FileChannel.MapMode mode = FileChannel.MapMode.PRIVATE;
+    FileChannel opened;
+    try {
+      opened = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (AccessDeniedException e) {
+      mode = FileChannel.MapMode.READ_ONLY;
+      opened = FileChannel.open(path, StandardOpenOption.READ);
+    }
+    try (FileChannel channel = opened) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          throw new IOException("Invalid snapshot file: the header is incomplete");
+        }
+      }
+      header.flip();
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Invalid snapshot file: it should begin with IMGSNAP1");
+      }
+      int height = header.getInt();
+      int width = header.getInt();
+      long planeSize = (long) height * width;
+      if (height < 0 || width < 0 || planeSize > Integer.MAX_VALUE) {
+        throw new IOException("Invalid snapshot file: the image size is not supported");
+      }
+      if (channel.size() < HEADER_SIZE + 3 * planeSize) {
+        throw new IOException("Invalid snapshot file: the file ends before its last plane");
+      }
+      // mappings stay valid after the channel is closed, and private ones copy pages on write
+      MappedByteBuffer[] planes = new MappedByteBuffer[3];
+      for (int plane = 0; plane < 3; plane++) {
+        planes[plane] = channel.map(mode, HEADER_SIZE + plane * planeSize, planeSize);
+      }
+      return new PlanarColorImage(height, width, planes[0], planes[1], planes[2]);
+    }
+  }
+
+  /**
+   * Writes an image as a snapshot, with its channels truncated to whole levels.
+   *
+   * @param image the image to write.
+   * @param path  the snapshot file, which is replaced if it exists. It is written under a
+   *              temporary name and moved into place, so that an image mapped from it keeps
+   *              its pixels and a concurrent load never maps half a snapshot.
+   * @throws IOException if the file cannot be written.
+   */
+  static void write(Image image, Path path) throws IOException {
+    long planeSize = (long) image.getHeight() * image.getWidth();
+    if (planeSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The image is too large for a snapshot.");
+    }
+    ImageUtil.replace(path, temporary -> writeTo(image, temporary));
+  }
+
+  private static void writeTo(Image image, Path path) throws IOException {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    long planeSize = (long) height * width;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.put(MAGIC).putInt(height).putInt(width).flip();
+      writeAt(channel, header, 0);
+
+      // each chunk of rows is split into its three planes and written where they belong
+      int chunkRows = Math.max(1, CHUNK_SIZE / Math.max(1, width));
+      ByteBuffer[] planes = new ByteBuffer[3];
+      for (int plane = 0; plane < 3; plane++) {
+        planes[plane] = ByteBuffer.allocate(chunkRows * width);
+      }
+      for (int startRow = 0; startRow < height; startRow += chunkRows) {
+        int endRow = Math.min(height, startRow + chunkRows);
+        for (ByteBuffer plane : planes) {
+          plane.clear();
+        }
+        for (int row = startRow; row < endRow; row++) {
+          for (int col = 0; col < width; col++) {
+            ColorPixel pixel = image.getPixel(row, col);
+            planes[0].put((byte) AbstractPixel.validateColorValue(pixel.getRed()));
+            planes[1].put((byte) AbstractPixel.validateColorValue(pixel.getGreen()));
+            planes[2].put((byte) AbstractPixel.validateColorValue(pixel.getBlue()));
+          }
+        }
+        for (int plane = 0; plane < 3; plane++) {
+          planes[plane].flip();
+          writeAt(channel, planes[plane],
+                  HEADER_SIZE + plane * planeSize + (long) startRow * width);
+        }
+      }
+    }
+  }
+
+  private static void writeAt(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+}
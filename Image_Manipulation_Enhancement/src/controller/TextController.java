@@ -5,13 +5,23 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
 
 import model.BetterImageProcessor;
 import model.ColorImage;
 import model.Image;
+import model.LazyColorImage;
+import model.RegionImageProcessor;
 
 /**
  * This class represents a text-based controller for an image processing application.
@@ -22,24 +32,76 @@ public class TextController implements IController {
   protected Scanner sc;
   protected BetterImageProcessor model;
   protected ImageUtil util;
+  protected PrintStream out;
   protected HashMap<String, Image> image_names;
   protected boolean quit;
+  private int prefetchThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private long prefetchBudget = Runtime.getRuntime().maxMemory() / 4;
+  private int saveThreads = Math.min(2, Runtime.getRuntime().availableProcessors());
+  private Path workingDirectory;
+  private final Map<String, List<LazyColorImage>> undecoded = new HashMap<>();
 
   /**
    * Constructs a TextController with a given image processing model and an input stream.
    *
    * @param model The image processing model to be used.
    * @param in    The input stream from which commands are read.
+   * @param out   The output stream to which messages are printed.
    */
   public TextController(BetterImageProcessor model, InputStream in,
                         PrintStream out, HashMap<String, Image> imageNames) {
     this.model = model;
     this.sc = new Scanner(in);
     this.image_names = imageNames;
-    util = new ImageUtil();
+    this.out = out;
+    util = new ImageUtil(out);
     quit = false;
   }
 
+  /**
+   * Sets how the images loaded further down a script are decoded in the background while
+   * the commands before them run. By default up to four images are decoded at once, and
+   * images taking up to a quarter of the maximum heap size are decoded ahead.
+   *
+   * @param threads      the number of images decoded at once, or 0 to decode each image
+   *                     when it is first used.
+   * @param memoryBudget the estimated bytes of images decoded ahead of their load commands.
+   */
+  public void setPrefetch(int threads, long memoryBudget) {
+    if (threads < 0 || memoryBudget < 0) {
+      throw new IllegalArgumentException("Prefetch settings should not be negative.");
+    }
+    this.prefetchThreads = threads;
+    this.prefetchBudget = memoryBudget;
+  }
+
+  /**
+   * Sets how many images a script saves at once in the background while its next commands
+   * run. By default up to two images are saved at once. Every save is written before the
+   * script ends, and saves to the same file are written in order.
+   *
+   * @param threads the number of images saved at once, or 0 to save each image before
+   *                the next command runs.
+   */
+  public void setSaveThreads(int threads) {
+    if (threads < 0) {
+      throw new IllegalArgumentException("The number of save threads should not be "
+              + "negative.");
+    }
+    this.saveThreads = threads;
+  }
+
+  /**
+   * Sets the directory that the relative file paths of load, save and run commands are
+   * resolved against, including those of the scripts they run. By default they are
+   * resolved against the working directory of the process.
+   *
+   * @param directory the directory, or null for the working directory of the process.
+   */
+  public void setWorkingDirectory(Path directory) {
+    this.workingDirectory = directory;
+  }
+
   /**
    * Begins the process of reading and executing commands from the input stream.
    */
@@ -55,13 +117,414 @@ public class TextController implements IController {
    */
   @Override
   public void executeCommands(Scanner sc) {
+    if (sc != this.sc) {
+      // a script can be read ahead, the interactive input cannot
+      List<String> commands = new ArrayList<>();
+      while (sc.hasNext()) {
+        commands.add(resolvePaths(sc.nextLine()));
+      }
+      executeScript(commands);
+      return;
+    }
     while (!quit) {
-      System.out.println("Enter command:");
+      out.println("Enter command:");
       if (!sc.hasNext()) {
         break;
       }
       String command = sc.nextLine();
-      execute(command);
+      executeLine(resolvePaths(command));
+    }
+  }
+
+  /**
+   * Executes the commands of a script in order. Consecutive component commands
+   * on the same source image are extracted together in a single pass. A chain that loads
+   * a PPM or PGM file, applies operations that only need nearby rows, each to the result
+   * of the one before, and saves the last result as a PPM or PGM file streams the image
+   * from one file to the other, if no later command uses the images of the chain.
+   * Images loaded further down the script are decoded in the background meanwhile, and
+   * saved images are written in the background; every save is written, or reported with
+   * its command line if it fails, before the script returns.
+   *
+   * @param commands the lines of the script.
+   */
+  protected void executeScript(List<String> commands) {
+    Prefetcher prefetcher = prefetchThreads == 0 ? null
+            : new Prefetcher(util, prefetchThreads, prefetchBudget);
+    SaveQueue saves = saveThreads == 0 ? null : new SaveQueue(saveThreads, out);
+    try {
+      int index = 0;
+      while (!quit && index < commands.size()) {
+        out.println("Enter command:");
+        int current = index;
+        if (prefetcher != null) {
+          prefetcher.advance(commands, current, load -> worthPrefetching(commands, current,
+                  load, saves));
+        }
+        String[] tokens = commands.get(index).trim().split("\\s+");
+        if (saves != null) {
+          awaitSaves(saves, tokens);
+        }
+        RowPipeline pipeline = new RowPipeline();
+        int chain = chainLength(commands, index, pipeline);
+        int run = componentRunLength(commands, index);
+        LazyColorImage prefetched = prefetcher == null ? null : prefetcher.take(index);
+        if (chain > 0) {
+          String[] save = commands.get(index + chain - 1).trim().split("\\s+");
+          if (saves != null) {
+            saves.await(save[1]);
+          }
+          decodeLoadedFrom(save[1]);
+          util.streamPPM(tokens[1], save[1], ppmFormat(save), ppmMaxValue(save), pipeline);
+          index += chain;
+        } else if (run > 1) {
+          executeComponents(commands.subList(index, index + run));
+          index += run;
+        } else if (prefetched != null) {
+          image_names.put(tokens[2], loaded(tokens[1], prefetched));
+          index++;
+        } else if (saves != null && tokens[0].equals("save") && tokens.length >= 3
+                && tokens.length <= 5 && image_names.get(tokens[2]) != null) {
+          saves.submit(tokens[1], commands.get(index), saveTask(tokens));
+          index++;
+        } else {
+          executeLine(commands.get(index));
+          index++;
+        }
+      }
+      if (saves != null) {
+        saves.flush();
+      }
+    } finally {
+      if (saves != null) {
+        saves.close();
+      }
+      if (prefetcher != null) {
+        prefetcher.close();
+      }
+    }
+  }
+
+  /**
+   * Resolves the file path of a load, save or run command against the working directory
+   * set for the controller, if any.
+   */
+  private String resolvePaths(String command) {
+    String[] tokens = command.trim().split("\\s+");
+    if (workingDirectory == null || tokens.length < 2 || !(tokens[0].equals("load")
+            || tokens[0].equals("save") || tokens[0].equals("run"))
+            || Paths.get(tokens[1]).isAbsolute()) {
+      return command;
+    }
+    tokens[1] = workingDirectory.resolve(tokens[1]).toString();
+    return String.join(" ", tokens);
+  }
+
+  /**
+   * Waits for the saves that a command depends on: those to the file it loads, or all of
+   * them before a nested script, which may load any file.
+   */
+  private static void awaitSaves(SaveQueue saves, String[] tokens) {
+    if (tokens[0].equals("run")) {
+      saves.flush();
+    } else if (tokens[0].equals("load") && tokens.length > 1) {
+      saves.await(tokens[1]);
+    }
+  }
+
+  /**
+   * Tells whether the image of a load command may be decoded while the commands before it
+   * run: it is used later, it is not streamed, and neither a queued save nor a command
+   * before it may write its file.
+   */
+  private boolean worthPrefetching(List<String> commands, int current, int load,
+                                   SaveQueue saves) {
+    String[] tokens = commands.get(load).trim().split("\\s+");
+    if (tokens[1].endsWith(".snap") || chainLength(commands, load, new RowPipeline()) > 0
+            || saves != null && saves.isPending(tokens[1])) {
+      return false;
+    }
+    for (String command : commands.subList(current, load)) {
+      String[] before = command.trim().split("\\s+");
+      if (before[0].equals("run")
+              || before[0].equals("save") && before.length > 1 && sameFile(before[1], tokens[1])) {
+        return false;
+      }
+    }
+    for (String command : commands.subList(load + 1, commands.size())) {
+      if (Arrays.asList(command.trim().split("\\s+")).contains(tokens[2])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Executes a command line. A line that ends with "region x y width height" applies its
+   * operation to that rectangle of the image only, leaving the rest of it unchanged.
+   *
+   * @param command the command line to execute.
+   */
+  protected void executeLine(String command) {
+    String[] tokens = command.trim().split("\\s+");
+    int modifier = tokens.length - 5;
+    if (modifier < 1 || !tokens[modifier].equals("region")) {
+      dispatch(command);
+      return;
+    }
+    int x = Integer.parseInt(tokens[modifier + 1]);
+    int y = Integer.parseInt(tokens[modifier + 2]);
+    int width = Integer.parseInt(tokens[modifier + 3]);
+    int height = Integer.parseInt(tokens[modifier + 4]);
+    BetterImageProcessor wholeImageModel = model;
+    model = new RegionImageProcessor(wholeImageModel, y, x, height, width);
+    try {
+      dispatch(String.join(" ", Arrays.copyOf(tokens, modifier)));
+    } finally {
+      model = wholeImageModel;
+    }
+  }
+
+  /**
+   * Executes a single command.
+   *
+   * @param command the command line to execute.
+   */
+  protected void dispatch(String command) {
+    execute(command);
+  }
+
+  /**
+   * Returns the number of commands of a streamable chain that starts at a command, after
+   * adding its operations to a pipeline, or 0 if no such chain starts there.
+   */
+  private int chainLength(List<String> commands, int start, RowPipeline pipeline) {
+    String[] tokens = commands.get(start).trim().split("\\s+");
+    if (!tokens[0].equals("load") || tokens.length != 3 || !isPPM(tokens[1])) {
+      return 0;
+    }
+    String source = tokens[1];
+    Set<String> names = new HashSet<>();
+    String name = tokens[2];
+    names.add(name);
+    int index = start + 1;
+    while (true) {
+      if (index == commands.size()) {
+        return 0;
+      }
+      tokens = commands.get(index).trim().split("\\s+");
+      index++;
+      if (tokens[0].equals("save")) {
+        if (tokens.length < 3 || tokens.length > 5 || !isPPM(tokens[1])
+                || !tokens[2].equals(name) || sameFile(source, tokens[1])) {
+          return 0;
+        }
+        break;
+      }
+      // brighten names its images after the increment, the other operations first
+      int at = tokens[0].equals("brighten") ? 2 : 1;
+      if (tokens.length < at + 2 || !tokens[at].equals(name)
+              || !addRowStage(pipeline, tokens)) {
+        return 0;
+      }
+      name = tokens[at + 1];
+      names.add(name);
+    }
+    for (String command : commands.subList(index, commands.size())) {
+      for (String token : command.trim().split("\\s+")) {
+        if (names.contains(token)) {
+          return 0;
+        }
+      }
+    }
+    return index - start;
+  }
+
+  /**
+   * Adds the operation of a command to a pipeline if the rows of its result only depend
+   * on nearby rows of its source image.
+   *
+   * @param pipeline the pipeline to add the operation to.
+   * @param tokens   the command, split into its tokens.
+   * @return true if the operation was added, false if it cannot be streamed.
+   */
+  protected boolean addRowStage(RowPipeline pipeline, String[] tokens) {
+    if (tokens[0].equals("brighten") && tokens.length == 4) {
+      int increment = Integer.parseInt(tokens[1]);
+      pipeline.add(0, image -> model.brightenOrDarken(image, increment));
+      return true;
+    }
+    if (tokens.length != 3) {
+      return false;
+    }
+    switch (tokens[0]) {
+      case "red-component":
+        pipeline.add(0, image -> model.splitIntoRGB(image).get("redChannel"));
+        return true;
+      case "green-component":
+        pipeline.add(0, image -> model.splitIntoRGB(image).get("greenChannel"));
+        return true;
+      case "blue-component":
+        pipeline.add(0, image -> model.splitIntoRGB(image).get("blueChannel"));
+        return true;
+      case "value-component":
+        pipeline.add(0, model::computeValue);
+        return true;
+      case "luma-component":
+        pipeline.add(0, model::computeLuma);
+        return true;
+      case "intensity-component":
+        pipeline.add(0, model::computeIntensity);
+        return true;
+      case "horizontal-flip":
+        pipeline.add(0, model::flipHorizontally);
+        return true;
+      case "sepia":
+        pipeline.add(0, model::sepia);
+        return true;
+      case "blur":
+        // half the height of the 3x3 kernel
+        pipeline.add(1, model::blur);
+        return true;
+      case "sharpen":
+        // half the height of the 5x5 kernel
+        pipeline.add(2, model::sharpen);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isPPM(String path) {
+    return path.endsWith(".ppm") || path.endsWith(".pgm");
+  }
+
+  private static boolean sameFile(String first, String second) {
+    try {
+      return new File(first).getCanonicalPath().equals(new File(second).getCanonicalPath());
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  private static String ppmFormat(String[] save) {
+    return save.length > 3 ? save[3] : save[1].endsWith(".pgm") ? "P5" : "P3";
+  }
+
+  private static int ppmMaxValue(String[] save) {
+    return save.length > 4 ? Integer.parseInt(save[4]) : 255;
+  }
+
+  private int componentRunLength(List<String> commands, int start) {
+    String source = null;
+    int index = start;
+    while (index < commands.size()) {
+      String[] tokens = commands.get(index).split("\\s+");
+      if (componentsOf(tokens) == null || (source != null && !source.equals(tokens[1]))) {
+        break;
+      }
+      source = tokens[1];
+      index++;
+      // a command that overwrites its own source ends the run
+      if (Arrays.asList(tokens).subList(2, tokens.length).contains(source)) {
+        break;
+      }
+    }
+    return index - start;
+  }
+
+  private String[] componentsOf(String[] tokens) {
+    switch (tokens[0]) {
+      case "red-component":
+        return tokens.length == 3 ? new String[]{"redChannel"} : null;
+      case "green-component":
+        return tokens.length == 3 ? new String[]{"greenChannel"} : null;
+      case "blue-component":
+        return tokens.length == 3 ? new String[]{"blueChannel"} : null;
+      case "value-component":
+        return tokens.length == 3 ? new String[]{"value"} : null;
+      case "luma-component":
+        return tokens.length == 3 ? new String[]{"luma"} : null;
+      case "intensity-component":
+        return tokens.length == 3 ? new String[]{"intensity"} : null;
+      case "rgb-split":
+        return tokens.length == 5
+                ? new String[]{"redChannel", "greenChannel", "blueChannel"} : null;
+      default:
+        return null;
+    }
+  }
+
+  private void executeComponents(List<String> commands) {
+    Set<String> components = new HashSet<>();
+    String source = null;
+    for (String command : commands) {
+      String[] tokens = command.split("\\s+");
+      source = tokens[1];
+      components.addAll(Arrays.asList(componentsOf(tokens)));
+    }
+    HashMap<String, Image> componentImages = model.extractComponents(
+            image_names.get(source), components);
+    for (String command : commands) {
+      String[] tokens = command.split("\\s+");
+      String[] names = componentsOf(tokens);
+      for (int i = 0; i < names.length; i++) {
+        image_names.put(tokens[i + 2], componentImages.get(names[i]));
+      }
+    }
+  }
+
+  /**
+   * Remembers the file that an image decoded on first use was loaded from, so that it can
+   * be decoded before the file is written.
+   */
+  private LazyColorImage loaded(String path, LazyColorImage image) {
+    if (!image.isDecoded()) {
+      undecoded.computeIfAbsent(SaveQueue.key(path), key -> new ArrayList<>()).add(image);
+    }
+    return image;
+  }
+
+  /**
+   * Decodes the images loaded from a file that are not decoded yet, before the file is
+   * written. They would otherwise decode whatever the file holds at their first use, which
+   * may be on a save thread while the file is being written. Images that are no longer
+   * registered are decoded too, since a queued save may still hold them.
+   */
+  private void decodeLoadedFrom(String path) {
+    List<LazyColorImage> images = undecoded.remove(SaveQueue.key(path));
+    if (images != null) {
+      for (LazyColorImage image : images) {
+        image.getImage();
+      }
+    }
+  }
+
+  /**
+   * Returns the task that saves an image as a save command asks, with the image that the
+   * name refers to now.
+   *
+   * @param tokens the save command, split into its tokens.
+   * @return the task that encodes and writes the image.
+   */
+  private Runnable saveTask(String[] tokens) {
+    String path = tokens[1];
+    decodeLoadedFrom(path);
+    String extension = path.substring(path.lastIndexOf('.') + 1);
+    Image image = image_names.get(tokens[2]);
+    if (Objects.equals(extension, "ppm") || Objects.equals(extension, "pgm")) {
+      String format = tokens.length > 3 ? tokens[3]
+              : Objects.equals(extension, "pgm") ? "P5" : "P3";
+      int maxValue = tokens.length > 4 ? Integer.parseInt(tokens[4]) : 255;
+      return () -> util.savePPM(image, path, format, maxValue);
+    } else if (Objects.equals(extension, "snap")) {
+      return () -> util.saveSnapshot(image, path);
+    } else {
+      // save path name [quality] [progressive]
+      int quality = tokens.length > 3 && !tokens[3].equals("progressive")
+              ? Integer.parseInt(tokens[3]) : -1;
+      boolean progressive = tokens[tokens.length - 1].equals("progressive");
+      return () -> util.saveImage(image, path, extension, quality, progressive);
     }
   }
 
@@ -84,10 +547,11 @@ public class TextController implements IController {
         image_name = tokens[2];
         ColorImage image;
         try {
-          if (Objects.equals(extension, "ppm")) {
-            image = util.readPPM(path);
+          // snapshots are mapped rather than decoded, everything else is decoded on first use
+          if (Objects.equals(extension, "snap")) {
+            image = util.readSnapshot(path);
           } else {
-            image = util.getImage(path);
+            image = loaded(path, util.openImage(path));
           }
         } catch (IOException e) {
           throw new RuntimeException(e);
@@ -95,14 +559,7 @@ public class TextController implements IController {
         image_names.put(image_name, image);
         break;
       case "save":
-        path = tokens[1];
-        extension = path.split("[.]")[1];
-        image_name = tokens[2];
-        if (Objects.equals(extension, "ppm")) {
-          util.savePPM(image_names.get(image_name), path);
-        } else {
-          util.saveImage(image_names.get(image_name), path, extension);
-        }
+        saveTask(tokens).run();
         break;
       case "red-component":
         image_name = tokens[1];
@@ -198,15 +655,21 @@ public class TextController implements IController {
         image_names.put(dest_image_name, newImage);
         break;
 
+      case "tiling":
+        // the budget is in megabytes, like the budgets of the command line
+        util.setTiling(Long.parseLong(tokens[1]), Integer.parseInt(tokens[2]),
+                Long.parseLong(tokens[3]) << 20);
+        break;
+
       case "run":
-        System.out.println();
+        out.println();
         String scriptPath = tokens[1];
         try {
           Scanner fileScanner = new Scanner(new File(scriptPath));
           executeCommands(fileScanner);
           fileScanner.close();
         } catch (FileNotFoundException e) {
-          System.out.println("Script file not found: " + scriptPath);
+          out.println("Script file not found: " + scriptPath);
         }
         quit = true;
         break;
@@ -216,7 +679,7 @@ public class TextController implements IController {
         break;
 
       default:
-        System.out.println("Command not found.");
+        out.println("Command not found.");
         break;
     }
   }
@@ -0,0 +1,58 @@
+package controller;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import model.TiledColorImage;
+
+/**
+ * A data buffer of packed RGB integers that reads and writes the pixels of a tiled image.
+ * A buffered image over it lets image readers decode straight into the tiles, and image
+ * writers encode straight from them, without the whole image ever being on the heap.
+ */
+class TiledDataBuffer extends DataBuffer {
+
+  private static final int[] MASKS = {0xFF0000, 0xFF00, 0xFF};
+
+  private final TiledColorImage image;
+  private final int width;
+
+  private TiledDataBuffer(TiledColorImage image) {
+    super(DataBuffer.TYPE_INT, image.getHeight() * image.getWidth());
+    this.image = image;
+    this.width = image.getWidth();
+  }
+
+  /**
+   * Returns a buffered image that shares its pixels with a tiled image, or null if the
+   * tiled image has more pixels than a buffered image can address.
+   *
+   * @param image the tiled image.
+   * @return a buffered image of packed RGB integers over the tiles.
+   */
+  static BufferedImage bufferedImage(TiledColorImage image) {
+    if ((long) image.getHeight() * image.getWidth() > Integer.MAX_VALUE) {
+      return null;
+    }
+    WritableRaster raster = Raster.createWritableRaster(
+            new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, image.getWidth(),
+                    image.getHeight(), MASKS),
+            new TiledDataBuffer(image), null);
+    return new BufferedImage(new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]), raster,
+            false, null);
+  }
+
+  @Override
+  public int getElem(int bank, int i) {
+    return image.getRGB(i / width, i % width);
+  }
+
+  @Override
+  public void setElem(int bank, int i, int val) {
+    image.setRGB(i / width, i % width, val);
+  }
+}
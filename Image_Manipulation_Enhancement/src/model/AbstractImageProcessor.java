@@ -1,7 +1,6 @@
 package model;
 
 import java.awt.Color;
-import java.awt.Graphics;
 
 /**
  * Abstract class providing a foundation for image processing.
@@ -17,7 +16,7 @@ public abstract class AbstractImageProcessor implements ImageProcessor {
   protected Image applyKernel(Image image, double[][] kernel) {
     int width = image.getWidth();
     int height = image.getHeight();
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     int kHeight = kernel.length;
     int kWidth = kernel[0].length;
@@ -82,6 +81,47 @@ public abstract class AbstractImageProcessor implements ImageProcessor {
     return new ColorPixel(newRed, newGreen, newBlue);
   }
 
+  /**
+   * Copies a rectangle of an image into a new image. A rectangle covering the whole image
+   * keeps its statistics.
+   *
+   * @param image  Input image.
+   * @param row    First row of the rectangle.
+   * @param col    First column of the rectangle.
+   * @param height Number of rows of the rectangle.
+   * @param width  Number of columns of the rectangle.
+   * @return Image of the rectangle.
+   */
+  protected Image crop(Image image, int row, int col, int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0
+            || row + height > image.getHeight() || col + width > image.getWidth()) {
+      throw new IllegalArgumentException("The rectangle should be inside the image.");
+    }
+    ColorImage cropped = image.blank(height, width);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        cropped.setPixel(i, j, image.getPixel(row + i, col + j));
+      }
+    }
+    if (height == image.getHeight() && width == image.getWidth()) {
+      cropped.shareStatistics(image);
+    }
+    return cropped;
+  }
+
+  /**
+   * Returns the number of columns, from the left, that a split view with the given
+   * percentage takes from the processed image.
+   *
+   * @param image      Input image.
+   * @param percentage Split percentage.
+   * @return Width of the previewed part of the image.
+   */
+  protected int splitViewWidth(Image image, int percentage) {
+    int width = image.getWidth();
+    return Math.min(width, width * percentage / 100 + 1);
+  }
+
   protected Image mergeForSplitView(Image original, Image processed, int percentage) {
     int width = original.getWidth();
     int splitColumn = width * percentage / 100;
@@ -89,7 +129,7 @@ public abstract class AbstractImageProcessor implements ImageProcessor {
     int lineStart = splitColumn - lineWidth / 2;
     int lineEnd = lineStart + lineWidth;
 
-    ColorImage mergedImage = new ColorImage(original.getHeight(), width);
+    ColorImage mergedImage = original.blank(original.getHeight(), width);
     ColorPixel greenPixel = new ColorPixel(0, 255, 0);
 
     for (int i = 0; i < original.getHeight(); i++) {
@@ -107,7 +147,7 @@ public abstract class AbstractImageProcessor implements ImageProcessor {
   }
 
   protected Image adjustColorBalance(Image image, int redOffset, int greenOffset, int blueOffset) {
-    ColorImage adjustedImage = new ColorImage(image.getHeight(), image.getWidth());
+    ColorImage adjustedImage = image.blank(image.getHeight(), image.getWidth());
     for (int row = 0; row < image.getHeight(); row++) {
       for (int col = 0; col < image.getWidth(); col++) {
         ColorPixel originalPixel = (ColorPixel) image.getPixel(row, col);
@@ -130,21 +170,60 @@ public abstract class AbstractImageProcessor implements ImageProcessor {
     return max;
   }
 
-  protected void drawHistogram(Graphics g, int[] histogram, Color color) {
-    g.setColor(color);
+  protected void drawHistogram(int[] raster, int[] histogram, Color color) {
+    int rgb = color.getRGB();
     int maxFrequency = getMaxFrequency(histogram);
     for (int i = 0; i < 255; i++) {
       int scaledFrequency1 = (histogram[i] * 256) / maxFrequency;
       int scaledFrequency2 = (histogram[i + 1] * 256) / maxFrequency;
-      g.drawLine(i, 256 - scaledFrequency1, i + 1, 256 - scaledFrequency2);
+      drawLine(raster, i, 256 - scaledFrequency1, i + 1, 256 - scaledFrequency2, rgb);
     }
   }
 
-  protected void drawGrid(Graphics g) {
-    g.setColor(Color.LIGHT_GRAY);
+  protected void drawGrid(int[] raster) {
+    int rgb = Color.LIGHT_GRAY.getRGB();
     for (int i = 0; i <= 256; i += 16) {
-      g.drawLine(i, 0, i, 256);
-      g.drawLine(0, i, 256, i);
+      drawLine(raster, i, 0, i, 256, rgb);
+      drawLine(raster, 0, i, 256, i, rgb);
+    }
+  }
+
+  /**
+   * Draws a line into a square 256 by 256 raster of packed RGB values, stored row by row,
+   * clipping the points that fall outside of it.
+   *
+   * @param raster the raster to draw into.
+   * @param x0     the column of the start point.
+   * @param y0     the row of the start point.
+   * @param x1     the column of the end point.
+   * @param y1     the row of the end point.
+   * @param rgb    the packed RGB value to draw.
+   */
+  protected void drawLine(int[] raster, int x0, int y0, int x1, int y1, int rgb) {
+    int dx = Math.abs(x1 - x0);
+    int dy = -Math.abs(y1 - y0);
+    int stepX = x0 < x1 ? 1 : -1;
+    int stepY = y0 < y1 ? 1 : -1;
+    int error = dx + dy;
+    int x = x0;
+    int y = y0;
+
+    while (true) {
+      if (x >= 0 && x < 256 && y >= 0 && y < 256) {
+        raster[y * 256 + x] = rgb;
+      }
+      if (x == x1 && y == y1) {
+        break;
+      }
+      int doubled = 2 * error;
+      if (doubled >= dy) {
+        error += dy;
+        x += stepX;
+      }
+      if (doubled <= dx) {
+        error += dx;
+        y += stepY;
+      }
     }
   }
 }
@@ -1,8 +1,6 @@
 package model;
 
-import java.awt.Graphics;
 import java.awt.Color;
-import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -15,6 +13,30 @@ public class BetterColorImageProcessor
     extends ColorImageProcessor
     implements BetterImageProcessor {
 
+  private long samplingThreshold = 1L << 24;
+  private double sampleRate = 1.0 / 16;
+  private double minConfidence = 0.99;
+
+  /**
+   * Configures the approximate histograms used by {@link #histogram(Image)} and
+   * {@link #colorCorrect(Image)}. Images with more pixels than the threshold are counted
+   * from a sample of their pixels, unless the sample is less confident of a channel's peak
+   * than the given minimum, in which case every pixel is counted.
+   *
+   * @param samplingThreshold the number of pixels above which an image is sampled.
+   * @param sampleRate        the fraction of the pixels to sample, between 0 and 1.
+   * @param minConfidence     the confidence in each peak below which the sample is ignored.
+   */
+  public void setHistogramSampling(long samplingThreshold, double sampleRate,
+                                   double minConfidence) {
+    if (sampleRate <= 0 || sampleRate > 1) {
+      throw new IllegalArgumentException("Sample rate should be between 0 and 1.");
+    }
+    this.samplingThreshold = samplingThreshold;
+    this.sampleRate = sampleRate;
+    this.minConfidence = minConfidence;
+  }
+
   @Override
   public Image compress(Image image, int percentage) {
     if (!(image instanceof ColorImage)) {
@@ -32,7 +54,7 @@ public class BetterColorImageProcessor
     double[][] greenChannel = colorImage.getGreenChannel();
     double[][] blueChannel = colorImage.getBlueChannel();
 
-    ColorImage compressedImage = new ColorImage(height, width);
+    ColorImage compressedImage = image.blank(height, width);
 
     int maxSide = Math.max(width, height);
     int paddingSize = findNextPowerOf2(maxSide);
@@ -79,30 +101,19 @@ public class BetterColorImageProcessor
   @Override
   public Image histogram(Image image) {
 
-    HashMap<Color, int[]> histogramMap = computeHistogram(image);
+    ImageStatistics statistics = approximateStatistics(image);
 
-    BufferedImage histogramBufferedImage = new BufferedImage(
-        256,
-        256,
-        BufferedImage.TYPE_INT_ARGB);
-    Graphics g = histogramBufferedImage.getGraphics();
+    int[] raster = new int[256 * 256];
 
-    drawGrid(g);
+    drawGrid(raster);
 
-    drawHistogram(g, histogramMap.get(Color.RED), Color.RED);
-    drawHistogram(g, histogramMap.get(Color.GREEN), Color.GREEN);
-    drawHistogram(g, histogramMap.get(Color.BLUE), Color.BLUE);
+    drawHistogram(raster, statistics.getHistogram(ImageStatistics.RED), Color.RED);
+    drawHistogram(raster, statistics.getHistogram(ImageStatistics.GREEN), Color.GREEN);
+    drawHistogram(raster, statistics.getHistogram(ImageStatistics.BLUE), Color.BLUE);
 
-    ColorImage histogramColorImage = new ColorImage(256, 256);
-    for (int i = 0; i < 256; i++) {
-      for (int j = 0; j < 256; j++) {
-        int rgb = histogramBufferedImage.getRGB(i, j);
-        int red = (rgb >> 16) & 0xFF;
-        int green = (rgb >> 8) & 0xFF;
-        int blue = rgb & 0xFF;
-        histogramColorImage.setPixel(j, i, new ColorPixel(red, green, blue));
-      }
-    }
+    // the raster is already in the packed layout of a buffered image, so it is copied whole
+    BufferedColorImage histogramColorImage = new BufferedColorImage(256, 256);
+    histogramColorImage.getBufferedImage().getRaster().setDataElements(0, 0, 256, 256, raster);
 
     return histogramColorImage;
 
@@ -116,18 +127,10 @@ public class BetterColorImageProcessor
    */
 
   public HashMap<Color, int[]> computeHistogram(Image image) {
-    int[] redHistogram = new int[256];
-    int[] greenHistogram = new int[256];
-    int[] blueHistogram = new int[256];
-
-    for (int row = 0; row < image.getHeight(); row++) {
-      for (int col = 0; col < image.getWidth(); col++) {
-        ColorPixel pixel = (ColorPixel) image.getPixel(row, col);
-        redHistogram[(int) pixel.getRed()]++;
-        greenHistogram[(int) pixel.getGreen()]++;
-        blueHistogram[(int) pixel.getBlue()]++;
-      }
-    }
+    ImageStatistics statistics = image.getStatistics();
+    int[] redHistogram = statistics.getHistogram(ImageStatistics.RED);
+    int[] greenHistogram = statistics.getHistogram(ImageStatistics.GREEN);
+    int[] blueHistogram = statistics.getHistogram(ImageStatistics.BLUE);
 
     HashMap<Color, int[]> histograms = new HashMap<>();
     histograms.put(Color.RED, redHistogram);
@@ -139,11 +142,13 @@ public class BetterColorImageProcessor
 
   @Override
   public Image colorCorrect(Image image) {
-    HashMap<Color, int[]> histograms = computeHistogram(image);
+    return colorCorrect(image, approximateStatistics(image));
+  }
 
-    int redPeak = findMeaningfulPeak(histograms.get(Color.RED));
-    int greenPeak = findMeaningfulPeak(histograms.get(Color.GREEN));
-    int bluePeak = findMeaningfulPeak(histograms.get(Color.BLUE));
+  private Image colorCorrect(Image image, ImageStatistics statistics) {
+    int redPeak = statistics.getMeaningfulPeak(ImageStatistics.RED);
+    int greenPeak = statistics.getMeaningfulPeak(ImageStatistics.GREEN);
+    int bluePeak = statistics.getMeaningfulPeak(ImageStatistics.BLUE);
 
     int averagePeak = (redPeak + greenPeak + bluePeak) / 3;
 
@@ -154,14 +159,19 @@ public class BetterColorImageProcessor
         averagePeak - bluePeak);
   }
 
-  private int findMeaningfulPeak(int[] histogram) {
-    int peakValue = 10;
-    for (int i = 11; i < 245; i++) {
-      if (histogram[i] > histogram[peakValue]) {
-        peakValue = i;
+  private ImageStatistics approximateStatistics(Image image) {
+    ImageStatistics known = image.knownStatistics();
+    if (known != null || sampleRate >= 1
+        || (long) image.getHeight() * image.getWidth() <= samplingThreshold) {
+      return image.getStatistics();
+    }
+    ImageStatistics estimate = ImageStatistics.sample(image, sampleRate);
+    for (int channel = 0; channel < 3; channel++) {
+      if (estimate.getPeakConfidence(channel) < minConfidence) {
+        return image.getStatistics();
       }
     }
-    return peakValue;
+    return estimate;
   }
 
   @Override
@@ -179,7 +189,7 @@ public class BetterColorImageProcessor
     double b = varA_b / varA;
     double c = varA_c / varA;
 
-    ColorImage adjustedImage = new ColorImage(image.getHeight(), image.getWidth());
+    ColorImage adjustedImage = image.blank(image.getHeight(), image.getWidth());
 
     for (int row = 0; row < image.getHeight(); row++) {
       for (int col = 0; col < image.getWidth(); col++) {
@@ -225,7 +235,7 @@ public class BetterColorImageProcessor
 
     }
 
-    Image imageIntArray = floatImageConvert(imageArray, height, width);
+    Image imageIntArray = floatImageConvert(givenImage, imageArray, height, width);
 
     return imageIntArray;
   }
@@ -233,12 +243,38 @@ public class BetterColorImageProcessor
 
   @Override
   public Image splitView(Image image, String operation, int percentage) {
-    Image processedImage = applyOperation(image, operation);
+    // only the previewed columns are processed, plus the columns a kernel reads beyond them
+    int height = image.getHeight();
+    int previewWidth = splitViewWidth(image, percentage);
+    Image processedImage;
+    switch (operation) {
+      case "blur":
+        processedImage = blur(crop(image, 0, 0, height,
+            Math.min(image.getWidth(), previewWidth + BLUR_KERNEL.length / 2)));
+        break;
+      case "sharpen":
+        processedImage = sharpen(crop(image, 0, 0, height,
+            Math.min(image.getWidth(), previewWidth + SHARPEN_KERNEL.length / 2)));
+        break;
+      case "color-correct":
+        // the correction depends on the histogram of the whole image
+        processedImage = colorCorrect(crop(image, 0, 0, height, previewWidth),
+            approximateStatistics(image));
+        break;
+      case "dither":
+        // the diffused error reaches every column to the right, so nothing can be skipped
+        processedImage = dither(image);
+        break;
+      default:
+        processedImage = applyOperation(crop(image, 0, 0, height, previewWidth), operation);
+        break;
+    }
     return mergeForSplitView(image, processedImage, percentage);
   }
 
   public Image splitView(Image image, int black, int mid, int white, int percentage) {
-    Image processedImage = adjustLevels(image, black, mid, white);
+    Image processedImage = adjustLevels(crop(image, 0, 0, image.getHeight(),
+        splitViewWidth(image, percentage)), black, mid, white);
     return mergeForSplitView(image, processedImage, percentage);
   }
 
@@ -431,9 +467,10 @@ public class BetterColorImageProcessor
     return resultChannel;
   }
 
-  private Image floatImageConvert(float[][] imageArray, int height, int width) {
+  private Image floatImageConvert(Image givenImage, float[][] imageArray, int height,
+                                   int width) {
 
-    Image resultImage = new ColorImage(height, width);
+    Image resultImage = givenImage.blank(height, width);
 
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
@@ -0,0 +1,110 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A color image that stores its pixels in the packed integer array of a
+ * {@link BufferedImage#TYPE_INT_RGB} buffered image. The same buffered image can be read
+ * from a file, processed, displayed and written back without converting its pixels.
+ * Channel values are stored as whole levels from 0 to 255, so setting a pixel truncates
+ * its channels, just as saving an image to a file does. Operations on the image write
+ * their results into a {@link ColorImage}, which keeps the fractions of its channels
+ * until the last result is saved.
+ */
+public class BufferedColorImage extends ColorImage {
+
+  private final BufferedImage image;
+  private final int[] data;
+  private final int offset;
+  private final int scanlineStride;
+
+  /**
+   * Initializes a black image with given dimensions.
+   *
+   * @param height Image height in pixels
+   * @param width  Image width in pixels
+   */
+  public BufferedColorImage(int height, int width) {
+    this(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+  }
+
+  /**
+   * Initializes an image that shares its pixels with a buffered image. Changes to either
+   * one are seen by the other.
+   *
+   * @param image a buffered image of type {@link BufferedImage#TYPE_INT_RGB}
+   */
+  public BufferedColorImage(BufferedImage image) {
+    super(image.getHeight(), image.getWidth(), null);
+    WritableRaster raster = image.getRaster();
+    if (image.getType() != BufferedImage.TYPE_INT_RGB
+            || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+            || !(raster.getDataBuffer() instanceof DataBufferInt)) {
+      throw new IllegalArgumentException("The buffered image should be of type TYPE_INT_RGB.");
+    }
+    SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+    DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+    this.image = image;
+    this.data = buffer.getData();
+    this.offset = buffer.getOffset() + model.getOffset(-raster.getSampleModelTranslateX(),
+            -raster.getSampleModelTranslateY());
+    this.scanlineStride = model.getScanlineStride();
+  }
+
+  /**
+   * Returns the buffered image that holds the pixels of this image.
+   *
+   * @return the buffered image, of type {@link BufferedImage#TYPE_INT_RGB}.
+   */
+  public BufferedImage getBufferedImage() {
+    return image;
+  }
+
+  /**
+   * Gets the pixel at specified coordinates.
+   *
+   * @param x Row of the pixel.
+   * @param y Column of the pixel.
+   * @return Pixel at (x, y).
+   */
+  @Override
+  public ColorPixel getPixel(int x, int y) {
+    int rgb = data[index(x, y)];
+    return new ColorPixel((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+  }
+
+  /**
+   * Sets the pixel at specified coordinates, truncating its channels to whole levels.
+   *
+   * @param x     Row of the pixel.
+   * @param y     Column of the pixel.
+   * @param pixel Pixel to set.
+   */
+  @Override
+  public void setPixel(int x, int y, ColorPixel pixel) {
+    pixelsChanged();
+    int red = (int) AbstractPixel.validateColorValue(pixel.getRed());
+    int green = (int) AbstractPixel.validateColorValue(pixel.getGreen());
+    int blue = (int) AbstractPixel.validateColorValue(pixel.getBlue());
+    data[index(x, y)] = (red << 16) | (green << 8) | blue;
+  }
+
+  private int index(int x, int y) {
+    if (x < 0 || x >= getHeight() || y < 0 || y >= getWidth()) {
+      throw new ArrayIndexOutOfBoundsException("Pixel (" + x + ", " + y + ") is outside"
+              + " of the image.");
+    }
+    return offset + x * scanlineStride + y;
+  }
+
+  /**
+   * The pixels are already black when the buffered image is created.
+   */
+  @Override
+  protected void initializePixels() {
+    // nothing to do
+  }
+}
@@ -1,5 +1,7 @@
 package model;
 
+import java.util.Arrays;
+
 /**
  * A 2D grid representation of a color image using {@link ColorPixel} objects.
  */
@@ -16,6 +18,28 @@ public class ColorImage extends Image {
     super(height, width);
   }
 
+  /**
+   * Initializes a ColorImage with given dimensions around an array of pixels, or around
+   * none for a subclass that stores its pixels another way.
+   *
+   * @param height Image height in pixels
+   * @param width  Image width in pixels
+   * @param pixels Pixels of the image, or null
+   */
+  protected ColorImage(int height, int width, ColorPixel[][] pixels) {
+    super(height, width, pixels);
+  }
+
+  /**
+   * Initializes a copy of an image. The copy shares its rows with the source until
+   * either of them changes a row, so copying is cheap when only a few rows are changed.
+   *
+   * @param source Image to copy
+   */
+  public ColorImage(Image source) {
+    super(source);
+  }
+
   /**
    * Get an array of the red component in the pixels of the image.
    *
@@ -81,10 +105,10 @@ public class ColorImage extends Image {
    */
   @Override
   protected void initializePixels() {
+    // pixels cannot be changed, so every black pixel can be the same one
+    ColorPixel black = new ColorPixel(0, 0, 0);
     for (int i = 0; i < getHeight(); i++) {
-      for (int j = 0; j < getWidth(); j++) {
-        pixels[i][j] = new ColorPixel(0, 0, 0);
-      }
+      Arrays.fill(pixels[i], black);
     }
   }
 
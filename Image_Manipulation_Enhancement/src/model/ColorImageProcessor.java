@@ -1,12 +1,35 @@
 package model;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A Class that can perform operations on images and return the resulting images.
  */
 
 public class ColorImageProcessor extends AbstractImageProcessor {
+
+  /**
+   * The convolution kernel of {@link #blur(Image)}.
+   */
+  protected static final double[][] BLUR_KERNEL = {
+          {0.0625, 0.125, 0.0625},
+          {0.125, 0.25, 0.125},
+          {0.0625, 0.125, 0.0625}
+  };
+
+  /**
+   * The convolution kernel of {@link #sharpen(Image)}.
+   */
+  protected static final double[][] SHARPEN_KERNEL = {
+          {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
+          {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+          {-1.0 / 8, 1.0 / 4, 1, 1.0 / 4, -1.0 / 8},
+          {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
+          {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}
+  };
+
   /**
    * Split an image into its individual R, G, B components.
    *
@@ -15,17 +38,50 @@ public class ColorImageProcessor extends AbstractImageProcessor {
    */
   @Override
   public HashMap<String, Image> splitIntoRGB(Image image) {
+    Set<String> channels = new HashSet<>();
+    channels.add("redChannel");
+    channels.add("greenChannel");
+    channels.add("blueChannel");
+    return extractComponents(image, channels);
+  }
+
+  /**
+   * Extract several single-channel components of an image in one pass over its pixels.
+   * Supported component names are "redChannel", "greenChannel", "blueChannel", "value",
+   * "luma" and "intensity"; each produces the same image as the dedicated method for it.
+   *
+   * @param image      The input image to extract the components from.
+   * @param components The names of the components to extract.
+   * @return A map from each requested component name to its image.
+   * @throws IllegalArgumentException if a component name is not supported.
+   */
+  @Override
+  public HashMap<String, Image> extractComponents(Image image, Set<String> components) {
     int height = image.getHeight();
     int width = image.getWidth();
     HashMap<String, Image> imageList = new HashMap<>();
 
-    ColorImage redChannel = new ColorImage(height, width);
-    ColorImage greenChannel = new ColorImage(height, width);
-    ColorImage blueChannel = new ColorImage(height, width);
+    for (String component : components) {
+      switch (component) {
+        case "redChannel":
+        case "greenChannel":
+        case "blueChannel":
+        case "value":
+        case "luma":
+        case "intensity":
+          imageList.put(component, image.blank(height, width));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown component: " + component);
+      }
+    }
 
-    imageList.put("redChannel", redChannel);
-    imageList.put("greenChannel", greenChannel);
-    imageList.put("blueChannel", blueChannel);
+    Image redChannel = imageList.get("redChannel");
+    Image greenChannel = imageList.get("greenChannel");
+    Image blueChannel = imageList.get("blueChannel");
+    Image valueImage = imageList.get("value");
+    Image lumaImage = imageList.get("luma");
+    Image intensityImage = imageList.get("intensity");
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
@@ -34,9 +90,27 @@ public class ColorImageProcessor extends AbstractImageProcessor {
         double green = pixel.getGreen();
         double blue = pixel.getBlue();
 
-        redChannel.setPixel(row, col, new ColorPixel(red, 0, 0));
-        greenChannel.setPixel(row, col, new ColorPixel(0, green, 0));
-        blueChannel.setPixel(row, col, new ColorPixel(0, 0, blue));
+        if (redChannel != null) {
+          redChannel.setPixel(row, col, new ColorPixel(red, 0, 0));
+        }
+        if (greenChannel != null) {
+          greenChannel.setPixel(row, col, new ColorPixel(0, green, 0));
+        }
+        if (blueChannel != null) {
+          blueChannel.setPixel(row, col, new ColorPixel(0, 0, blue));
+        }
+        if (valueImage != null) {
+          double value = Math.max(red, Math.max(green, blue));
+          valueImage.setPixel(row, col, new ColorPixel(value, value, value));
+        }
+        if (lumaImage != null) {
+          double luma = 0.2126 * red + 0.7152 * green + 0.0722 * blue;
+          lumaImage.setPixel(row, col, new ColorPixel(luma, luma, luma));
+        }
+        if (intensityImage != null) {
+          double intensity = (red + green + blue) / 3.0;
+          intensityImage.setPixel(row, col, new ColorPixel(intensity, intensity, intensity));
+        }
       }
     }
     return imageList;
@@ -54,13 +128,14 @@ public class ColorImageProcessor extends AbstractImageProcessor {
     int height = image.getHeight();
     int width = image.getWidth();
 
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
         returnImage.setPixel(row, col, image.getPixel(row, width - col - 1));
       }
     }
+    returnImage.shareStatistics(image);
     return returnImage;
   }
 
@@ -75,13 +150,14 @@ public class ColorImageProcessor extends AbstractImageProcessor {
     int height = image.getHeight();
     int width = image.getWidth();
 
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
         returnImage.setPixel(row, col, image.getPixel(height - row - 1, col));
       }
     }
+    returnImage.shareStatistics(image);
     return returnImage;
   }
 
@@ -95,7 +171,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
   public Image grayscale(Image image) {
     int height = image.getHeight();
     int width = image.getWidth();
-    ColorImage grayscaleImage = new ColorImage(height, width);
+    ColorImage grayscaleImage = image.blank(height, width);
 
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
@@ -122,7 +198,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
   public Image brightenOrDarken(Image image, double constant) {
     int height = image.getHeight();
     int width = image.getWidth();
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
@@ -162,7 +238,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
     int height = redChannel.getHeight();
     int width = redChannel.getWidth();
 
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = redChannel.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
@@ -194,13 +270,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
   @Override
   public Image blur(Image image) {
 
-    double[][] kernel = {
-            {0.0625, 0.125, 0.0625},
-            {0.125, 0.25, 0.125},
-            {0.0625, 0.125, 0.0625}
-    };
-
-    return applyKernel(image, kernel);
+    return applyKernel(image, BLUR_KERNEL);
   }
 
   /**
@@ -211,15 +281,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
    */
   @Override
   public Image sharpen(Image image) {
-    double[][] kernel = {
-            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8},
-            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
-            {-1.0 / 8, 1.0 / 4, 1, 1.0 / 4, -1.0 / 8},
-            {-1.0 / 8, 1.0 / 4, 1.0 / 4, 1.0 / 4, -1.0 / 8},
-            {-1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8, -1.0 / 8}
-    };
-
-    return applyKernel(image, kernel);
+    return applyKernel(image, SHARPEN_KERNEL);
   }
 
   /**
@@ -236,7 +298,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
     int height = image.getHeight();
     int width = image.getWidth();
 
-    ColorImage sepiaImage = new ColorImage(height, width);
+    ColorImage sepiaImage = image.blank(height, width);
     double[][] sepiaMatrix = {
             {0.393, 0.769, 0.189},
             {0.349, 0.686, 0.168},
@@ -266,7 +328,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
   public Image computeValue(Image image) {
     int width = image.getWidth();
     int height = image.getHeight();
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
@@ -290,7 +352,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
   public Image computeIntensity(Image image) {
     int width = image.getWidth();
     int height = image.getHeight();
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
@@ -315,7 +377,7 @@ public class ColorImageProcessor extends AbstractImageProcessor {
   public Image computeLuma(Image image) {
     int width = image.getWidth();
     int height = image.getHeight();
-    ColorImage returnImage = new ColorImage(height, width);
+    ColorImage returnImage = image.blank(height, width);
 
     for (int row = 0; row < height; row++) {
       for (int col = 0; col < width; col++) {
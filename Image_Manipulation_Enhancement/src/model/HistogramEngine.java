@@ -0,0 +1,106 @@
+package model;
+
+import java.util.stream.IntStream;
+
+/**
+ * Computes the red, green and blue histograms of an image, either exactly or from a
+ * regular sample of its pixels. Large images are split into horizontal bands that are
+ * counted in parallel into private bins and merged afterwards, so the result is always
+ * identical to a serial count.
+ */
+public class HistogramEngine {
+
+  /**
+   * Images with fewer pixels than this are counted on the calling thread.
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  private final int parallelism;
+
+  /**
+   * Constructs a histogram engine that uses all available processors.
+   */
+  public HistogramEngine() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructs a histogram engine that splits an image into bands for the given
+   * number of threads.
+   *
+   * @param parallelism the number of threads to split the work for.
+   */
+  public HistogramEngine(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism should be at least 1.");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Counts the red, green and blue values of every pixel of an image.
+   *
+   * @param image the image to count.
+   * @return an array of three 256-bin histograms, in red, green, blue order.
+   */
+  public int[][] compute(Image image) {
+    return sample(image, 1);
+  }
+
+  /**
+   * Counts the red, green and blue values of one pixel in every stride by stride block of
+   * an image. The sampled column shifts from one sampled row to the next so that regular
+   * patterns in the image do not line up with the sampling grid.
+   *
+   * @param image  the image to count.
+   * @param stride the distance between sampled rows and between sampled columns.
+   * @return an array of three 256-bin histograms, in red, green, blue order.
+   */
+  public int[][] sample(Image image, int stride) {
+    if (stride < 1) {
+      throw new IllegalArgumentException("Stride should be at least 1.");
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int rows = (height + stride - 1) / stride;
+    if (parallelism == 1 || (long) height * width < PARALLEL_THRESHOLD || rows < 2) {
+      return countRows(image, 0, rows, stride);
+    }
+
+    // a few bands per thread keeps the load balanced when bands differ in cost
+    int bands = Math.min(rows, parallelism * 4);
+    return IntStream.range(0, bands)
+            .parallel()
+            .mapToObj(band -> countRows(image, (int) ((long) rows * band / bands),
+                    (int) ((long) rows * (band + 1) / bands), stride))
+            .reduce(HistogramEngine::merge)
+            .orElseGet(() -> new int[3][256]);
+  }
+
+  private static int[][] countRows(Image image, int startRow, int endRow, int stride) {
+    int[] red = new int[256];
+    int[] green = new int[256];
+    int[] blue = new int[256];
+    int width = image.getWidth();
+
+    for (int sampledRow = startRow; sampledRow < endRow; sampledRow++) {
+      int row = sampledRow * stride;
+      for (int col = (sampledRow * 7) % stride; col < width; col += stride) {
+        ColorPixel pixel = image.getPixel(row, col);
+        red[(int) pixel.getRed()]++;
+        green[(int) pixel.getGreen()]++;
+        blue[(int) pixel.getBlue()]++;
+      }
+    }
+    return new int[][]{red, green, blue};
+  }
+
+  private static int[][] merge(int[][] first, int[][] second) {
+    for (int channel = 0; channel < first.length; channel++) {
+      for (int bin = 0; bin < 256; bin++) {
+        first[channel][bin] += second[channel][bin];
+      }
+    }
+    return first;
+  }
+}
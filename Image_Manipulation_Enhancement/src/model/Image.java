@@ -1,5 +1,7 @@
 package model;
 
+import java.util.Arrays;
+
 /**
  * Abstract class representing an image comprising a 2D grid of Pixel objects.
  */
@@ -11,6 +13,8 @@ public abstract class Image implements ImageInterface {
   protected ColorPixel[][] pixels;
   private int width;
   private int height;
+  private volatile ImageStatistics statistics;
+  private boolean[] sharedRows;
 
   /**
    * Constructs an Image with the specified width and height.
@@ -26,6 +30,53 @@ public abstract class Image implements ImageInterface {
     initializePixels();
   }
 
+  /**
+   * Constructs an Image with the specified width and height around an array of pixels, or
+   * around none for a subclass that stores its pixels another way and overrides
+   * {@link #getPixel} and {@link #setPixel}.
+   *
+   * @param height The height of the image.
+   * @param width  The width of the image.
+   * @param pixels The pixels of the image, or null.
+   */
+  protected Image(int height, int width, ColorPixel[][] pixels) {
+    this.width = width;
+    this.height = height;
+    this.pixels = pixels;
+  }
+
+  /**
+   * Constructs a copy of an image that shares the rows of its pixels with the source until
+   * either of them sets a pixel in a row, at which point that one copies the row.
+   *
+   * @param source The image to copy.
+   */
+  protected Image(Image source) {
+    source = source.resolve();
+    this.width = source.getWidth();
+    this.height = source.getHeight();
+    if (source.pixels != null) {
+      source.shareRows();
+      this.pixels = source.pixels.clone();
+      shareRows();
+    } else {
+      this.pixels = new ColorPixel[height][width];
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          pixels[i][j] = source.getPixel(i, j);
+        }
+      }
+    }
+    this.statistics = source.knownStatistics();
+  }
+
+  private void shareRows() {
+    if (sharedRows == null) {
+      sharedRows = new boolean[height];
+    }
+    Arrays.fill(sharedRows, true);
+  }
+
   /**
    * Abstract method for initializing pixels.
    */
@@ -50,9 +101,100 @@ public abstract class Image implements ImageInterface {
    * @param pixel Pixel to set.
    */
   public void setPixel(int x, int y, ColorPixel pixel) {
+    pixelsChanged();
+    if (sharedRows != null && sharedRows[x]) {
+      pixels[x] = pixels[x].clone();
+      sharedRows[x] = false;
+    }
     pixels[x][y] = pixel;
   }
 
+  /**
+   * Discards what is known about the pixels of the image, such as its statistics. Every
+   * change to a pixel calls this.
+   */
+  protected void pixelsChanged() {
+    if (statistics != null) {
+      statistics = null;
+    }
+  }
+
+  /**
+   * Creates a black image of the given size for operations to write their results into.
+   * It keeps fractional levels, unless this image is too large to hold them, like a tiled
+   * image, whose results are tiled too.
+   *
+   * @param height The height of the new image.
+   * @param width  The width of the new image.
+   * @return A black image.
+   */
+  ColorImage blank(int height, int width) {
+    return new ColorImage(height, width);
+  }
+
+  /**
+   * Creates a copy of this image that operations can change, which stores its pixels the
+   * way {@link #blank} does.
+   *
+   * @return A copy of the image.
+   */
+  ColorImage copy() {
+    return new ColorImage(this);
+  }
+
+  /**
+   * Returns the statistics of the image, counting them on first use. Setting a pixel
+   * discards them, so they are counted again when they are next needed.
+   *
+   * @return the statistics of the image.
+   */
+  public ImageStatistics getStatistics() {
+    ImageStatistics current = statistics;
+    if (current == null) {
+      current = ImageStatistics.of(this);
+      statistics = current;
+    }
+    return current;
+  }
+
+  /**
+   * Returns the statistics of the image if they are already known, without counting them.
+   *
+   * @return the statistics of the image, or null if they have not been counted.
+   */
+  ImageStatistics knownStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Keeps statistics counted by a subclass, until a pixel is next set.
+   *
+   * @param statistics the statistics of the image.
+   */
+  void cacheStatistics(ImageStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * Gives this image the statistics of another image whose pixel values it has, such as
+   * a flip of it, if they are already known.
+   *
+   * @param source the image that has the same pixel values in some arrangement.
+   */
+  void shareStatistics(Image source) {
+    statistics = source.knownStatistics();
+  }
+
+  /**
+   * Returns the image that holds the pixels of this one, which is this image itself
+   * unless it passes its calls on to another image.
+   *
+   * @return the image that holds the pixels.
+   */
+  Image resolve() {
+    return this;
+  }
+
   /**
    * Returns the image's width.
    *
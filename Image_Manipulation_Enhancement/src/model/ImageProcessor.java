@@ -1,6 +1,7 @@
 package model;
 
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * The ImageProcessor interface provides methods for various image processing operations.
@@ -15,6 +16,18 @@ public interface ImageProcessor {
    */
   HashMap<String, Image> splitIntoRGB(Image image);
 
+  /**
+   * Extract several single-channel components of an image in one pass over its pixels.
+   * Supported component names are "redChannel", "greenChannel", "blueChannel", "value",
+   * "luma" and "intensity"; each produces the same image as the dedicated method for it.
+   *
+   * @param image      The input image to extract the components from.
+   * @param components The names of the components to extract.
+   * @return A map from each requested component name to its image.
+   * @throws IllegalArgumentException if a component name is not supported.
+   */
+  HashMap<String, Image> extractComponents(Image image, Set<String> components);
+
   /**
    * Flip an image horizontally.
    *
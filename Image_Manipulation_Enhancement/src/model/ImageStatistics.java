@@ -0,0 +1,238 @@
+package model;
+
+/**
+ * Per-channel statistics of an image: the red, green and blue histograms and the minimum,
+ * maximum, mean and meaningful peak derived from them. The derived values are over the
+ * channel values truncated to whole levels, exactly as they are counted in the histograms.
+ * Statistics counted from a sample of the pixels are estimates, and report how confident
+ * they are of their peaks.
+ */
+public class ImageStatistics {
+
+  /**
+   * Index of the red channel.
+   */
+  public static final int RED = 0;
+
+  /**
+   * Index of the green channel.
+   */
+  public static final int GREEN = 1;
+
+  /**
+   * Index of the blue channel.
+   */
+  public static final int BLUE = 2;
+
+  private static final HistogramEngine ENGINE = new HistogramEngine();
+
+  private final int[][] histograms;
+  private final long count;
+  private final boolean exact;
+
+  /**
+   * Constructs the statistics of a set of red, green and blue histograms of every pixel.
+   *
+   * @param histograms three 256-bin histograms, in red, green, blue order.
+   */
+  public ImageStatistics(int[][] histograms) {
+    this(histograms, true);
+  }
+
+  /**
+   * Constructs the statistics of a set of red, green and blue histograms.
+   *
+   * @param histograms three 256-bin histograms, in red, green, blue order.
+   * @param exact      whether the histograms count every pixel rather than a sample.
+   */
+  public ImageStatistics(int[][] histograms, boolean exact) {
+    if (histograms.length != 3) {
+      throw new IllegalArgumentException("There should be a histogram for each channel.");
+    }
+    this.histograms = new int[3][];
+    long total = 0;
+    for (int channel = 0; channel < 3; channel++) {
+      if (histograms[channel].length != 256) {
+        throw new IllegalArgumentException("A histogram should have 256 bins.");
+      }
+      this.histograms[channel] = histograms[channel].clone();
+    }
+    for (int frequency : this.histograms[RED]) {
+      total += frequency;
+    }
+    this.count = total;
+    this.exact = exact;
+  }
+
+  /**
+   * Counts the statistics of an image.
+   *
+   * @param image the image to count.
+   * @return the statistics of the image.
+   */
+  public static ImageStatistics of(Image image) {
+    return new ImageStatistics(ENGINE.compute(image));
+  }
+
+  /**
+   * Estimates the statistics of an image from a regular sample of its pixels.
+   *
+   * @param image      the image to sample.
+   * @param sampleRate the fraction of the pixels to count, between 0 and 1.
+   * @return the estimated statistics of the image, or the exact ones for a rate of 1.
+   */
+  public static ImageStatistics sample(Image image, double sampleRate) {
+    if (sampleRate <= 0 || sampleRate > 1) {
+      throw new IllegalArgumentException("Sample rate should be between 0 and 1.");
+    }
+    int stride = Math.max(1, (int) Math.round(1 / Math.sqrt(sampleRate)));
+    if (stride == 1) {
+      return of(image);
+    }
+    return new ImageStatistics(ENGINE.sample(image, stride), false);
+  }
+
+  /**
+   * Returns a copy of the histogram of a channel.
+   *
+   * @param channel one of {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @return the 256-bin histogram of the channel.
+   */
+  public int[] getHistogram(int channel) {
+    return histograms[channel].clone();
+  }
+
+  /**
+   * Returns the smallest level of a channel, or 0 for an empty image.
+   *
+   * @param channel one of {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @return the minimum level.
+   */
+  public int getMin(int channel) {
+    for (int level = 0; level < 256; level++) {
+      if (histograms[channel][level] > 0) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the largest level of a channel, or 0 for an empty image.
+   *
+   * @param channel one of {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @return the maximum level.
+   */
+  public int getMax(int channel) {
+    for (int level = 255; level >= 0; level--) {
+      if (histograms[channel][level] > 0) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the mean level of a channel, or 0 for an empty image.
+   *
+   * @param channel one of {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @return the mean level.
+   */
+  public double getMean(int channel) {
+    if (count == 0) {
+      return 0;
+    }
+    long sum = 0;
+    for (int level = 0; level < 256; level++) {
+      sum += (long) level * histograms[channel][level];
+    }
+    return (double) sum / count;
+  }
+
+  /**
+   * Returns the most frequent level of a channel, ignoring the levels below 10 and
+   * above 244 that are dominated by shadows and highlights.
+   *
+   * @param channel one of {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @return the meaningful peak level.
+   */
+  public int getMeaningfulPeak(int channel) {
+    return findMeaningfulPeak(histograms[channel]);
+  }
+
+  /**
+   * Returns how likely it is that the meaningful peak of a channel is that of the whole
+   * image, to within one level. It is 1 for exact statistics. For an estimate, it is the
+   * normal approximation of the probability that the sampled peak outnumbers the next
+   * most frequent level that is not adjacent to it, so values near 0.5 mean that the
+   * sample cannot tell the two apart.
+   *
+   * @param channel one of {@link #RED}, {@link #GREEN} or {@link #BLUE}.
+   * @return the confidence in the peak, between 0 and 1.
+   */
+  public double getPeakConfidence(int channel) {
+    if (exact) {
+      return 1;
+    }
+    int[] histogram = histograms[channel];
+    int peak = findMeaningfulPeak(histogram);
+    int runnerUp = 0;
+    for (int i = 10; i < 245; i++) {
+      if (Math.abs(i - peak) > 1 && histogram[i] > runnerUp) {
+        runnerUp = histogram[i];
+      }
+    }
+    int peakCount = histogram[peak];
+    if (peakCount == 0) {
+      return 0;
+    }
+    // the counts are roughly Poisson, so their difference has a variance of their sum
+    double z = (peakCount - runnerUp) / Math.sqrt(peakCount + runnerUp);
+    return normalDistribution(z);
+  }
+
+  /**
+   * Returns whether these statistics count every pixel rather than a sample.
+   *
+   * @return true if the statistics are exact.
+   */
+  public boolean isExact() {
+    return exact;
+  }
+
+  private static double normalDistribution(double z) {
+    // Abramowitz and Stegun approximation of the error function
+    double x = Math.abs(z) / Math.sqrt(2);
+    double t = 1 / (1 + 0.3275911 * x);
+    double polynomial = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+            + t * (-1.453152027 + t * 1.061405429))));
+    double erf = 1 - polynomial * Math.exp(-x * x);
+    return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+  }
+
+  /**
+   * Finds the most frequent level of a histogram between 10 and 244.
+   *
+   * @param histogram a 256-bin histogram.
+   * @return the meaningful peak level.
+   */
+  static int findMeaningfulPeak(int[] histogram) {
+    int peakValue = 10;
+    for (int i = 11; i < 245; i++) {
+      if (histogram[i] > histogram[peakValue]) {
+        peakValue = i;
+      }
+    }
+    return peakValue;
+  }
+
+  /**
+   * Returns the number of pixels counted, which is less than the number of pixels of the
+   * image for an estimate.
+   *
+   * @return the pixel count.
+   */
+  public long getCount() {
+    return count;
+  }
+}
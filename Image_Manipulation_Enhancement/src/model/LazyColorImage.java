@@ -0,0 +1,112 @@
+package model;
+
+import java.util.function.Supplier;
+
+/**
+ * A color image whose size is known before its pixels are. The pixels are decoded on
+ * first use, such as the first pixel read or the first operation on the image, so that an
+ * image that is loaded but never used is never decoded. From then on the image behaves
+ * exactly like the decoded image, which it passes every call on to.
+ */
+public class LazyColorImage extends ColorImage {
+
+  private Supplier<ColorImage> decoder;
+  private volatile ColorImage image;
+
+  /**
+   * Constructs an image of a known size that is decoded on first use.
+   *
+   * @param height  Image height in pixels
+   * @param width   Image width in pixels
+   * @param decoder The function that decodes the image, which is called at most once and
+   *                should return an image of the given size
+   */
+  public LazyColorImage(int height, int width, Supplier<ColorImage> decoder) {
+    super(height, width, null);
+    this.decoder = decoder;
+  }
+
+  /**
+   * Returns the decoded image, decoding it if this is its first use.
+   *
+   * @return the decoded image.
+   * @throws IllegalStateException if the decoded image is not the size that was expected.
+   */
+  public ColorImage getImage() {
+    ColorImage decoded = image;
+    if (decoded == null) {
+      synchronized (this) {
+        decoded = image;
+        if (decoded == null) {
+          decoded = decoder.get();
+          if (decoded.getHeight() != getHeight() || decoded.getWidth() != getWidth()) {
+            throw new IllegalStateException("The image is " + decoded.getWidth() + " by "
+                    + decoded.getHeight() + " pixels instead of " + getWidth() + " by "
+                    + getHeight() + ".");
+          }
+          image = decoded;
+          decoder = null;
+        }
+      }
+    }
+    return decoded;
+  }
+
+  /**
+   * Returns whether the image has been decoded.
+   *
+   * @return true once the image has been decoded.
+   */
+  public boolean isDecoded() {
+    return image != null;
+  }
+
+  @Override
+  public ColorPixel getPixel(int x, int y) {
+    return getImage().getPixel(x, y);
+  }
+
+  @Override
+  public void setPixel(int x, int y, ColorPixel pixel) {
+    getImage().setPixel(x, y, pixel);
+  }
+
+  @Override
+  public ImageStatistics getStatistics() {
+    return getImage().getStatistics();
+  }
+
+  @Override
+  ImageStatistics knownStatistics() {
+    ColorImage decoded = image;
+    return decoded == null ? null : decoded.knownStatistics();
+  }
+
+  @Override
+  void cacheStatistics(ImageStatistics statistics) {
+    getImage().cacheStatistics(statistics);
+  }
+
+  @Override
+  Image resolve() {
+    return getImage();
+  }
+
+  @Override
+  ColorImage blank(int height, int width) {
+    return getImage().blank(height, width);
+  }
+
+  @Override
+  ColorImage copy() {
+    return getImage().copy();
+  }
+
+  /**
+   * The pixels are the decoded image's.
+   */
+  @Override
+  protected void initializePixels() {
+    // nothing to do
+  }
+}
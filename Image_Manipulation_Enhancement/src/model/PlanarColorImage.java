@@ -0,0 +1,85 @@
+package model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A color image that stores each channel as a separate plane of bytes, one byte per pixel
+ * in row order. The planes can be any byte buffers, including regions of a file mapped
+ * into memory, in which case the pixels are only read from the file when they are used.
+ * Channel values are stored as whole levels from 0 to 255, so setting a pixel truncates
+ * its channels, just as saving an image to a file does.
+ */
+public class PlanarColorImage extends ColorImage {
+
+  private final ByteBuffer red;
+  private final ByteBuffer green;
+  private final ByteBuffer blue;
+
+  /**
+   * Initializes an image over three planes of bytes. The image reads and writes the
+   * planes from their first byte, whatever their position.
+   *
+   * @param height Image height in pixels
+   * @param width  Image width in pixels
+   * @param red    Plane of the red channel
+   * @param green  Plane of the green channel
+   * @param blue   Plane of the blue channel
+   */
+  public PlanarColorImage(int height, int width, ByteBuffer red, ByteBuffer green,
+                          ByteBuffer blue) {
+    super(height, width, null);
+    long size = (long) height * width;
+    if (red.capacity() < size || green.capacity() < size || blue.capacity() < size) {
+      throw new IllegalArgumentException("Each plane should have a byte for every pixel.");
+    }
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+  }
+
+  /**
+   * Gets the pixel at specified coordinates.
+   *
+   * @param x Row of the pixel.
+   * @param y Column of the pixel.
+   * @return Pixel at (x, y).
+   */
+  @Override
+  public ColorPixel getPixel(int x, int y) {
+    int index = index(x, y);
+    return new ColorPixel(red.get(index) & 0xFF, green.get(index) & 0xFF,
+            blue.get(index) & 0xFF);
+  }
+
+  /**
+   * Sets the pixel at specified coordinates, truncating its channels to whole levels.
+   *
+   * @param x     Row of the pixel.
+   * @param y     Column of the pixel.
+   * @param pixel Pixel to set.
+   */
+  @Override
+  public void setPixel(int x, int y, ColorPixel pixel) {
+    pixelsChanged();
+    int index = index(x, y);
+    red.put(index, (byte) AbstractPixel.validateColorValue(pixel.getRed()));
+    green.put(index, (byte) AbstractPixel.validateColorValue(pixel.getGreen()));
+    blue.put(index, (byte) AbstractPixel.validateColorValue(pixel.getBlue()));
+  }
+
+  private int index(int x, int y) {
+    if (x < 0 || x >= getHeight() || y < 0 || y >= getWidth()) {
+      throw new ArrayIndexOutOfBoundsException("Pixel (" + x + ", " + y + ") is outside"
+              + " of the image.");
+    }
+    return x * getWidth() + y;
+  }
+
+  /**
+   * The planes are given with their pixels already set.
+   */
+  @Override
+  protected void initializePixels() {
+    // nothing to do
+  }
+}
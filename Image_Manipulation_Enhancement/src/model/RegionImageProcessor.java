@@ -0,0 +1,210 @@
+package model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * An image processor that applies the operations of another processor to a rectangle of
+ * an image only. Each operation reads the rectangle, plus the rows and columns around it
+ * that a convolution kernel reaches, and treats that as the whole image. The result is a
+ * copy of the input, stored the same way, that shares every row outside of the rectangle
+ * with it when the input keeps its pixels in rows.
+ */
+public class RegionImageProcessor implements BetterImageProcessor {
+
+  private final BetterImageProcessor delegate;
+  private final int row;
+  private final int col;
+  private final int height;
+  private final int width;
+
+  /**
+   * Constructs a processor for a rectangle of an image. The parts of the rectangle that
+   * fall outside of an image are ignored.
+   *
+   * @param delegate the processor that performs the operations.
+   * @param row      the first row of the rectangle.
+   * @param col      the first column of the rectangle.
+   * @param height   the number of rows of the rectangle.
+   * @param width    the number of columns of the rectangle.
+   */
+  public RegionImageProcessor(BetterImageProcessor delegate, int row, int col,
+                              int height, int width) {
+    if (row < 0 || col < 0 || height < 0 || width < 0) {
+      throw new IllegalArgumentException("The region should not be negative.");
+    }
+    this.delegate = delegate;
+    this.row = row;
+    this.col = col;
+    this.height = height;
+    this.width = width;
+  }
+
+  /**
+   * Applies an operation to the rectangle, extended by a halo on every side, and copies the
+   * rectangle of the result into a copy of the image.
+   */
+  private Image inRegion(Image image, int halo, UnaryOperator<Image> operation) {
+    int bottom = Math.min(image.getHeight(), row + height);
+    int right = Math.min(image.getWidth(), col + width);
+    if (row >= bottom || col >= right) {
+      return image.copy();
+    }
+    int top = Math.max(0, row - halo);
+    int left = Math.max(0, col - halo);
+    Image input = cut(image, top, left, Math.min(image.getHeight(), bottom + halo) - top,
+            Math.min(image.getWidth(), right + halo) - left);
+    return paste(image, operation.apply(input), top, left);
+  }
+
+  private Image paste(Image image, Image processed, int top, int left) {
+    ColorImage result = image.copy();
+    int bottom = Math.min(image.getHeight(), row + height);
+    int right = Math.min(image.getWidth(), col + width);
+    for (int i = row; i < bottom; i++) {
+      for (int j = col; j < right; j++) {
+        result.setPixel(i, j, processed.getPixel(i - top, j - left));
+      }
+    }
+    return result;
+  }
+
+  private Image cut(Image image, int top, int left, int rows, int cols) {
+    ColorImage cut = image.blank(rows, cols);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        cut.setPixel(i, j, image.getPixel(top + i, left + j));
+      }
+    }
+    return cut;
+  }
+
+  private Image regionOf(Image image) {
+    int top = Math.min(image.getHeight(), row);
+    int left = Math.min(image.getWidth(), col);
+    return cut(image, top, left, Math.min(image.getHeight(), row + height) - top,
+            Math.min(image.getWidth(), col + width) - left);
+  }
+
+  @Override
+  public HashMap<String, Image> splitIntoRGB(Image image) {
+    HashMap<String, Image> regions = delegate.splitIntoRGB(regionOf(image));
+    return pasteAll(image, regions);
+  }
+
+  @Override
+  public HashMap<String, Image> extractComponents(Image image, Set<String> components) {
+    HashMap<String, Image> regions = delegate.extractComponents(regionOf(image), components);
+    return pasteAll(image, regions);
+  }
+
+  private HashMap<String, Image> pasteAll(Image image, HashMap<String, Image> regions) {
+    HashMap<String, Image> results = new HashMap<>();
+    for (Map.Entry<String, Image> entry : regions.entrySet()) {
+      results.put(entry.getKey(), paste(image, entry.getValue(),
+              Math.min(image.getHeight(), row), Math.min(image.getWidth(), col)));
+    }
+    return results;
+  }
+
+  @Override
+  public Image flipHorizontally(Image image) {
+    return inRegion(image, 0, delegate::flipHorizontally);
+  }
+
+  @Override
+  public Image flipVertically(Image image) {
+    return inRegion(image, 0, delegate::flipVertically);
+  }
+
+  @Override
+  public Image grayscale(Image image) {
+    return inRegion(image, 0, delegate::grayscale);
+  }
+
+  @Override
+  public Image brightenOrDarken(Image image, double factor) {
+    return inRegion(image, 0, region -> delegate.brightenOrDarken(region, factor));
+  }
+
+  /**
+   * Combines the rectangles of three images. Outside of the rectangle, the result is a
+   * copy of the red channel image.
+   */
+  @Override
+  public Image combineImages(Image redChannel, Image greenChannel, Image blueChannel) {
+    return inRegion(redChannel, 0, region -> delegate.combineImages(region,
+            regionOf(greenChannel), regionOf(blueChannel)));
+  }
+
+  @Override
+  public Image blur(Image image) {
+    return inRegion(image, ColorImageProcessor.BLUR_KERNEL.length / 2, delegate::blur);
+  }
+
+  @Override
+  public Image sharpen(Image image) {
+    return inRegion(image, ColorImageProcessor.SHARPEN_KERNEL.length / 2, delegate::sharpen);
+  }
+
+  @Override
+  public Image sepia(Image image) {
+    return inRegion(image, 0, delegate::sepia);
+  }
+
+  @Override
+  public Image computeValue(Image image) {
+    return inRegion(image, 0, delegate::computeValue);
+  }
+
+  @Override
+  public Image computeIntensity(Image image) {
+    return inRegion(image, 0, delegate::computeIntensity);
+  }
+
+  @Override
+  public Image computeLuma(Image image) {
+    return inRegion(image, 0, delegate::computeLuma);
+  }
+
+  @Override
+  public Image compress(Image image, int percentage) {
+    return inRegion(image, 0, region -> delegate.compress(region, percentage));
+  }
+
+  /**
+   * Produces the histogram of the rectangle of an image.
+   */
+  @Override
+  public Image histogram(Image image) {
+    return delegate.histogram(regionOf(image));
+  }
+
+  @Override
+  public Image colorCorrect(Image image) {
+    return inRegion(image, 0, delegate::colorCorrect);
+  }
+
+  @Override
+  public Image adjustLevels(Image image, int black, int mid, int white) {
+    return inRegion(image, 0, region -> delegate.adjustLevels(region, black, mid, white));
+  }
+
+  @Override
+  public Image splitView(Image image, String operation, int percentage) {
+    return inRegion(image, 0, region -> delegate.splitView(region, operation, percentage));
+  }
+
+  @Override
+  public Image splitView(Image image, int black, int mid, int white, int percentage) {
+    return inRegion(image, 0, region -> delegate.splitView(region, black, mid, white,
+            percentage));
+  }
+
+  @Override
+  public Image dither(Image image) {
+    return inRegion(image, 0, delegate::dither);
+  }
+}
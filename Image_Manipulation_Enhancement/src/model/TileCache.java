@@ -0,0 +1,116 @@
+package model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The tiles that a group of {@link TiledColorImage}s keep on the heap, within one memory
+ * budget for all of them. The least recently used tile of any of the images is spilled to
+ * the scratch file of its image when a new one does not fit. The images of a cache lock
+ * it to reach their tiles, so they are accessed by one thread at a time.
+ */
+public class TileCache {
+
+  /**
+   * The tiles kept whatever the budget, so that a pixel can be copied from one tile to
+   * another.
+   */
+  private static final int MIN_RESIDENT = 4;
+
+  private final Map<Tile, int[]> resident = new LinkedHashMap<>(16, 0.75f, true);
+  private long memoryBudget;
+  private long residentBytes;
+
+  /**
+   * Constructs an empty cache.
+   *
+   * @param memoryBudget the bytes of tiles to keep on the heap.
+   */
+  public TileCache(long memoryBudget) {
+    setMemoryBudget(memoryBudget);
+  }
+
+  /**
+   * Returns the number of bytes of tiles that the images of the cache keep on the heap.
+   *
+   * @return the memory budget.
+   */
+  public synchronized long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Sets the number of bytes of tiles that the images of the cache keep on the heap, and
+   * spills the tiles that no longer fit.
+   *
+   * @param memoryBudget the memory budget.
+   */
+  public synchronized void setMemoryBudget(long memoryBudget) {
+    if (memoryBudget < 0) {
+      throw new IllegalArgumentException("The memory budget should not be negative.");
+    }
+    this.memoryBudget = memoryBudget;
+    trim();
+  }
+
+  /**
+   * Returns the number of bytes of the tiles on the heap.
+   *
+   * @return the bytes of the resident tiles.
+   */
+  public synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /**
+   * Returns a resident tile of an image and marks it as the most recently used one.
+   */
+  synchronized int[] get(TiledColorImage image, int index) {
+    return resident.get(new Tile(image, index));
+  }
+
+  /**
+   * Adds a tile of an image that was read from its scratch file, and spills the least
+   * recently used tiles that no longer fit.
+   */
+  synchronized void put(TiledColorImage image, int index, int[] tile) {
+    resident.put(new Tile(image, index), tile);
+    residentBytes += 4L * tile.length;
+    trim();
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<Tile, int[]>> eldest = resident.entrySet().iterator();
+    while (residentBytes > memoryBudget && resident.size() > MIN_RESIDENT) {
+      Map.Entry<Tile, int[]> entry = eldest.next();
+      eldest.remove();
+      residentBytes -= 4L * entry.getValue().length;
+      entry.getKey().image.spill(entry.getKey().index, entry.getValue());
+    }
+  }
+
+  /**
+   * A tile of an image, which are told apart by identity.
+   */
+  private static final class Tile {
+    private final TiledColorImage image;
+    private final int index;
+
+    private Tile(TiledColorImage image, int index) {
+      this.image = image;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Tile && ((Tile) other).image == image
+              && ((Tile) other).index == index;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(image) + index;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package model;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A color image for images larger than the heap. The image is cut into square tiles of
+ * packed RGB integers. Only the most recently used tiles are kept on the heap, in a
+ * {@link TileCache} that the image shares with the images made from it, so that they stay
+ * within one memory budget together; the others are spilled to a scratch file that is
+ * mapped into memory, so the operating system decides which of them stay in RAM and which
+ * are written to disk. Like a buffered image, it stores channel values as whole levels
+ * from 0 to 255.
+ *
+ * <p>Reading the pixels row by row needs one row of tiles at a time to be resident. The
+ * {@link TiledImageProcessor} processes these images one tile at a time instead.
+ */
+public class TiledColorImage extends ColorImage {
+
+  /**
+   * The largest part of the scratch file that one buffer maps.
+   */
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  private final int tileSize;
+  private final int tileRows;
+  private final int tileCols;
+  private final TileCache cache;
+  private final int tilesPerSegment;
+  private final IntBuffer[] segments;
+  private final boolean[] dirty;
+  private int lastIndex = -1;
+  private int[] lastTile;
+
+  /**
+   * Initializes a black tiled image with a cache of its own.
+   *
+   * @param height       Image height in pixels
+   * @param width        Image width in pixels
+   * @param tileSize     Width and height of a tile in pixels
+   * @param memoryBudget Bytes of tiles to keep on the heap, which is raised to what four
+   *                     tiles take if it is smaller
+   */
+  public TiledColorImage(int height, int width, int tileSize, long memoryBudget) {
+    this(height, width, tileSize, new TileCache(memoryBudget));
+  }
+
+  /**
+   * Initializes a black tiled image that keeps its tiles in a shared cache.
+   *
+   * @param height   Image height in pixels
+   * @param width    Image width in pixels
+   * @param tileSize Width and height of a tile in pixels
+   * @param cache    The cache of the tiles on the heap
+   */
+  public TiledColorImage(int height, int width, int tileSize, TileCache cache) {
+    super(height, width, null);
+    if (height < 0 || width < 0 || tileSize < 1 || tileSize > 8192) {
+      throw new IllegalArgumentException("Tiles should be between 1 and 8192 pixels wide.");
+    }
+    this.tileSize = tileSize;
+    this.tileRows = (height + tileSize - 1) / tileSize;
+    this.tileCols = (width + tileSize - 1) / tileSize;
+    long tileBytes = 4L * tileSize * tileSize;
+    if ((long) tileRows * tileCols > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The image has too many tiles.");
+    }
+    this.cache = cache;
+    this.tilesPerSegment = (int) Math.max(1, SEGMENT_SIZE / tileBytes);
+    this.segments = new IntBuffer[(tileRows * tileCols + tilesPerSegment - 1)
+            / tilesPerSegment];
+    this.dirty = new boolean[tileRows * tileCols];
+    mapScratch(tileRows * tileCols, tileBytes);
+  }
+
+  /**
+   * Maps the whole scratch file. Its pages are only backed by the file, so the mappings
+   * take address space rather than memory, and the file is gone once they are.
+   */
+  private void mapScratch(int tileCount, long tileBytes) {
+    try {
+      Path path = Files.createTempFile("tiles", ".scratch");
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        for (int segment = 0; segment < segments.length; segment++) {
+          int tiles = Math.min(tilesPerSegment, tileCount - segment * tilesPerSegment);
+          MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                  segment * (long) tilesPerSegment * tileBytes, tiles * tileBytes);
+          segments[segment] = mapped.asIntBuffer();
+        }
+      } finally {
+        // the mappings keep the pages of the file after it is deleted
+        try {
+          Files.delete(path);
+        } catch (IOException e) {
+          path.toFile().deleteOnExit();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the width and height of the tiles of the image.
+   *
+   * @return the tile size in pixels.
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Returns the cache that the image keeps its tiles on the heap in.
+   *
+   * @return the tile cache.
+   */
+  public TileCache getTileCache() {
+    return cache;
+  }
+
+  /**
+   * Gets the pixel at specified coordinates.
+   *
+   * @param x Row of the pixel.
+   * @param y Column of the pixel.
+   * @return Pixel at (x, y).
+   */
+  @Override
+  public ColorPixel getPixel(int x, int y) {
+    int rgb = getRGB(x, y);
+    return new ColorPixel((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+  }
+
+  /**
+   * Sets the pixel at specified coordinates, truncating its channels to whole levels.
+   *
+   * @param x     Row of the pixel.
+   * @param y     Column of the pixel.
+   * @param pixel Pixel to set.
+   */
+  @Override
+  public void setPixel(int x, int y, ColorPixel pixel) {
+    int red = (int) AbstractPixel.validateColorValue(pixel.getRed());
+    int green = (int) AbstractPixel.validateColorValue(pixel.getGreen());
+    int blue = (int) AbstractPixel.validateColorValue(pixel.getBlue());
+    setRGB(x, y, (red << 16) | (green << 8) | blue);
+  }
+
+  /**
+   * Gets the pixel at specified coordinates as a packed RGB integer.
+   *
+   * @param x Row of the pixel.
+   * @param y Column of the pixel.
+   * @return the red, green and blue levels of the pixel in bits 16-23, 8-15 and 0-7.
+   */
+  public int getRGB(int x, int y) {
+    checkBounds(x, y);
+    synchronized (cache) {
+      return tile(x / tileSize, y / tileSize)[(x % tileSize) * tileSize + y % tileSize];
+    }
+  }
+
+  /**
+   * Sets the pixel at specified coordinates from a packed RGB integer.
+   *
+   * @param x   Row of the pixel.
+   * @param y   Column of the pixel.
+   * @param rgb the red, green and blue levels of the pixel in bits 16-23, 8-15 and 0-7.
+   */
+  public void setRGB(int x, int y, int rgb) {
+    checkBounds(x, y);
+    pixelsChanged();
+    synchronized (cache) {
+      int[] tile = tile(x / tileSize, y / tileSize);
+      dirty[lastIndex] = true;
+      tile[(x % tileSize) * tileSize + y % tileSize] = rgb & 0xFFFFFF;
+    }
+  }
+
+  private void checkBounds(int x, int y) {
+    if (x < 0 || x >= getHeight() || y < 0 || y >= getWidth()) {
+      throw new ArrayIndexOutOfBoundsException("Pixel (" + x + ", " + y + ") is outside"
+              + " of the image.");
+    }
+  }
+
+  /**
+   * Returns a tile, reading it from the scratch file if it is not resident. The caller
+   * holds the lock of the cache.
+   */
+  private int[] tile(int tileRow, int tileCol) {
+    int index = tileRow * tileCols + tileCol;
+    if (index == lastIndex) {
+      return lastTile;
+    }
+    int[] tile = cache.get(this, index);
+    if (tile == null) {
+      tile = new int[tileSize * tileSize];
+      IntBuffer segment = segments[index / tilesPerSegment];
+      segment.position((index % tilesPerSegment) * tile.length);
+      segment.get(tile);
+      cache.put(this, index, tile);
+    }
+    lastIndex = index;
+    lastTile = tile;
+    return tile;
+  }
+
+  /**
+   * Writes a tile that the cache no longer keeps back to the scratch file if it changed.
+   */
+  void spill(int index, int[] tile) {
+    if (index == lastIndex) {
+      lastIndex = -1;
+      lastTile = null;
+    }
+    if (dirty[index]) {
+      IntBuffer segment = segments[index / tilesPerSegment];
+      segment.position((index % tilesPerSegment) * tile.length);
+      segment.put(tile);
+      dirty[index] = false;
+    }
+  }
+
+  /**
+   * Counts the statistics of the image one tile at a time.
+   *
+   * @return the statistics of the image.
+   */
+  @Override
+  public ImageStatistics getStatistics() {
+    ImageStatistics known = knownStatistics();
+    if (known != null) {
+      return known;
+    }
+    int[][] histograms = new int[3][256];
+    for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+      for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+        int rows = Math.min(tileSize, getHeight() - tileRow * tileSize);
+        int cols = Math.min(tileSize, getWidth() - tileCol * tileSize);
+        synchronized (cache) {
+          int[] tile = tile(tileRow, tileCol);
+          for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+              int rgb = tile[i * tileSize + j];
+              histograms[ImageStatistics.RED][(rgb >> 16) & 0xFF]++;
+              histograms[ImageStatistics.GREEN][(rgb >> 8) & 0xFF]++;
+              histograms[ImageStatistics.BLUE][rgb & 0xFF]++;
+            }
+          }
+        }
+      }
+    }
+    ImageStatistics statistics = new ImageStatistics(histograms);
+    cacheStatistics(statistics);
+    return statistics;
+  }
+
+  /**
+   * The scratch file is black until tiles are written to it.
+   */
+  @Override
+  protected void initializePixels() {
+    // nothing to do
+  }
+
+  /**
+   * Results of operations on a tiled image are tiled the same way, in the same cache.
+   */
+  @Override
+  ColorImage blank(int height, int width) {
+    return new TiledColorImage(height, width, tileSize, cache);
+  }
+
+  @Override
+  ColorImage copy() {
+    TiledColorImage copy = new TiledColorImage(getHeight(), getWidth(), tileSize, cache);
+    for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+      for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+        synchronized (cache) {
+          int[] tile = tile(tileRow, tileCol);
+          System.arraycopy(tile, 0, copy.tile(tileRow, tileCol), 0, tile.length);
+          copy.dirty[copy.lastIndex] = true;
+        }
+      }
+    }
+    copy.shareStatistics(this);
+    return copy;
+  }
+}
@@ -0,0 +1,282 @@
+package model;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * An image processor that applies the operations of another processor to a
+ * {@link TiledColorImage} one tile at a time, so that only a few tiles of the input and
+ * the result are needed on the heap at once. Each tile is cut out, together with the
+ * pixels around it that a convolution kernel reaches, processed as a small image of its
+ * own and written into the same tile of the result. Operations that depend on the whole
+ * image use its statistics, which are counted tile by tile first.
+ *
+ * <p>Compression, dithering and split views cannot be split into tiles, so they are
+ * applied to the whole tiled image at once. Images that are not tiled are passed to the
+ * other processor unchanged, once a {@link LazyColorImage} is decoded.
+ */
+public class TiledImageProcessor implements BetterImageProcessor {
+
+  private final BetterImageProcessor delegate;
+
+  /**
+   * Constructs a processor that applies the operations of another processor tile by tile.
+   *
+   * @param delegate the processor that performs the operations.
+   */
+  public TiledImageProcessor(BetterImageProcessor delegate) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Applies an operation to every tile of an image, extended by a halo on every side.
+   */
+  private Image byTile(Image image, int halo, boolean globalStatistics,
+                       UnaryOperator<Image> operation) {
+    image = image.resolve();
+    if (!(image instanceof TiledColorImage)) {
+      return operation.apply(image);
+    }
+    TiledColorImage tiled = (TiledColorImage) image;
+    ImageStatistics statistics = globalStatistics ? tiled.getStatistics() : null;
+    Image result = tiled.blank(tiled.getHeight(), tiled.getWidth());
+    int tileSize = tiled.getTileSize();
+    for (int row = 0; row < tiled.getHeight(); row += tileSize) {
+      for (int col = 0; col < tiled.getWidth(); col += tileSize) {
+        int top = Math.max(0, row - halo);
+        int left = Math.max(0, col - halo);
+        Image input = cut(tiled, top, left,
+                Math.min(tiled.getHeight(), row + tileSize + halo) - top,
+                Math.min(tiled.getWidth(), col + tileSize + halo) - left);
+        if (statistics != null) {
+          input.cacheStatistics(statistics);
+        }
+        paste(result, operation.apply(input), row - top, col - left, row, col, tileSize);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Copies a rectangle of an image into a small image on the heap.
+   */
+  private static Image cut(Image image, int top, int left, int rows, int cols) {
+    ColorImage cut = new ColorImage(rows, cols);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        cut.setPixel(i, j, image.getPixel(top + i, left + j));
+      }
+    }
+    return cut;
+  }
+
+  /**
+   * Copies a tile from a processed rectangle, starting at an offset in it, into an image.
+   */
+  private static void paste(Image result, Image processed, int fromRow, int fromCol,
+                            int row, int col, int tileSize) {
+    int rows = Math.min(tileSize, result.getHeight() - row);
+    int cols = Math.min(tileSize, result.getWidth() - col);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        result.setPixel(row + i, col + j, processed.getPixel(fromRow + i, fromCol + j));
+      }
+    }
+  }
+
+  /**
+   * Flips an image tile by tile: each tile of the result is the flip of the tile at the
+   * mirrored position of the image.
+   */
+  private Image flip(Image image, boolean horizontally) {
+    image = image.resolve();
+    if (!(image instanceof TiledColorImage)) {
+      return horizontally ? delegate.flipHorizontally(image) : delegate.flipVertically(image);
+    }
+    TiledColorImage tiled = (TiledColorImage) image;
+    int height = tiled.getHeight();
+    int width = tiled.getWidth();
+    int tileSize = tiled.getTileSize();
+    Image result = tiled.blank(height, width);
+    for (int row = 0; row < height; row += tileSize) {
+      for (int col = 0; col < width; col += tileSize) {
+        int rows = Math.min(tileSize, height - row);
+        int cols = Math.min(tileSize, width - col);
+        Image input;
+        if (horizontally) {
+          input = delegate.flipHorizontally(cut(tiled, row, width - col - cols, rows, cols));
+        } else {
+          input = delegate.flipVertically(cut(tiled, height - row - rows, col, rows, cols));
+        }
+        paste(result, input, 0, 0, row, col, tileSize);
+      }
+    }
+    result.shareStatistics(image);
+    return result;
+  }
+
+  @Override
+  public HashMap<String, Image> splitIntoRGB(Image image) {
+    image = image.resolve();
+    if (!(image instanceof TiledColorImage)) {
+      return delegate.splitIntoRGB(image);
+    }
+    Set<String> channels = new HashSet<>();
+    channels.add("redChannel");
+    channels.add("greenChannel");
+    channels.add("blueChannel");
+    return extractComponents(image, channels);
+  }
+
+  @Override
+  public HashMap<String, Image> extractComponents(Image image, Set<String> components) {
+    image = image.resolve();
+    if (!(image instanceof TiledColorImage)) {
+      return delegate.extractComponents(image, components);
+    }
+    TiledColorImage tiled = (TiledColorImage) image;
+    int tileSize = tiled.getTileSize();
+    HashMap<String, Image> results = new HashMap<>();
+    for (int row = 0; row < tiled.getHeight(); row += tileSize) {
+      for (int col = 0; col < tiled.getWidth(); col += tileSize) {
+        Image input = cut(tiled, row, col, Math.min(tileSize, tiled.getHeight() - row),
+                Math.min(tileSize, tiled.getWidth() - col));
+        for (Map.Entry<String, Image> entry
+                : delegate.extractComponents(input, components).entrySet()) {
+          Image result = results.computeIfAbsent(entry.getKey(),
+              key -> tiled.blank(tiled.getHeight(), tiled.getWidth()));
+          paste(result, entry.getValue(), 0, 0, row, col, tileSize);
+        }
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public Image flipHorizontally(Image image) {
+    return flip(image, true);
+  }
+
+  @Override
+  public Image flipVertically(Image image) {
+    return flip(image, false);
+  }
+
+  @Override
+  public Image grayscale(Image image) {
+    return byTile(image, 0, false, delegate::grayscale);
+  }
+
+  @Override
+  public Image brightenOrDarken(Image image, double factor) {
+    return byTile(image, 0, false, tile -> delegate.brightenOrDarken(tile, factor));
+  }
+
+  /**
+   * Combines three images tile by tile, following the tiles of the red channel image.
+   */
+  @Override
+  public Image combineImages(Image redChannel, Image greenChannel, Image blueChannel) {
+    redChannel = redChannel.resolve();
+    greenChannel = greenChannel.resolve();
+    blueChannel = blueChannel.resolve();
+    if (!(redChannel instanceof TiledColorImage)
+            || redChannel.getHeight() != greenChannel.getHeight()
+            || redChannel.getHeight() != blueChannel.getHeight()
+            || redChannel.getWidth() != greenChannel.getWidth()
+            || redChannel.getWidth() != blueChannel.getWidth()) {
+      return delegate.combineImages(redChannel, greenChannel, blueChannel);
+    }
+    int tileSize = ((TiledColorImage) redChannel).getTileSize();
+    Image result = redChannel.blank(redChannel.getHeight(), redChannel.getWidth());
+    for (int row = 0; row < redChannel.getHeight(); row += tileSize) {
+      for (int col = 0; col < redChannel.getWidth(); col += tileSize) {
+        int rows = Math.min(tileSize, redChannel.getHeight() - row);
+        int cols = Math.min(tileSize, redChannel.getWidth() - col);
+        paste(result, delegate.combineImages(cut(redChannel, row, col, rows, cols),
+                cut(greenChannel, row, col, rows, cols), cut(blueChannel, row, col, rows, cols)),
+                0, 0, row, col, tileSize);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Image blur(Image image) {
+    return byTile(image, ColorImageProcessor.BLUR_KERNEL.length / 2, false, delegate::blur);
+  }
+
+  @Override
+  public Image sharpen(Image image) {
+    return byTile(image, ColorImageProcessor.SHARPEN_KERNEL.length / 2, false,
+            delegate::sharpen);
+  }
+
+  @Override
+  public Image sepia(Image image) {
+    return byTile(image, 0, false, delegate::sepia);
+  }
+
+  @Override
+  public Image computeValue(Image image) {
+    return byTile(image, 0, false, delegate::computeValue);
+  }
+
+  @Override
+  public Image computeIntensity(Image image) {
+    return byTile(image, 0, false, delegate::computeIntensity);
+  }
+
+  @Override
+  public Image computeLuma(Image image) {
+    return byTile(image, 0, false, delegate::computeLuma);
+  }
+
+  @Override
+  public Image compress(Image image, int percentage) {
+    return delegate.compress(image.resolve(), percentage);
+  }
+
+  /**
+   * Produces the histogram of an image from its statistics, which are counted tile by tile.
+   */
+  @Override
+  public Image histogram(Image image) {
+    image = image.resolve();
+    if (image instanceof TiledColorImage) {
+      image.getStatistics();
+    }
+    return delegate.histogram(image);
+  }
+
+  /**
+   * Color-corrects an image tile by tile, with the peaks of the whole image.
+   */
+  @Override
+  public Image colorCorrect(Image image) {
+    return byTile(image, 0, true, delegate::colorCorrect);
+  }
+
+  @Override
+  public Image adjustLevels(Image image, int black, int mid, int white) {
+    return byTile(image, 0, false, tile -> delegate.adjustLevels(tile, black, mid, white));
+  }
+
+  @Override
+  public Image splitView(Image image, String operation, int percentage) {
+    return delegate.splitView(image.resolve(), operation, percentage);
+  }
+
+  @Override
+  public Image splitView(Image image, int black, int mid, int white, int percentage) {
+    return delegate.splitView(image.resolve(), black, mid, white, percentage);
+  }
+
+  @Override
+  public Image dither(Image image) {
+    return delegate.dither(image.resolve());
+  }
+}
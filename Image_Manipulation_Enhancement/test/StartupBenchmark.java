@@ -0,0 +1,97 @@
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.UIManager;
+
+import view.ImageGraphicsView;
+
+/**
+ * Times how long running a script takes from the start of a new JVM to its exit, with the
+ * headless script mode of MainApp, and with what MainApp did before, which built the
+ * graphical view before it looked at its arguments. The script saves a small JPEG image,
+ * so that ImageIO is loaded in both. Each is run a number of times, 10 by default, and
+ * the median is printed.
+ *
+ * <p>Without a display the view cannot be built, so the old startup is reproduced as far
+ * as it went there: the view and Swing classes are initialized and the look and feel is
+ * loaded, as building the frame does first.
+ *
+ * <p>Run with the compiled sources and tests on the class path:
+ * {@code java StartupBenchmark [rounds]}.
+ */
+public class StartupBenchmark {
+
+  /**
+   * Runs the benchmark, or, given "swing" and a script, the old startup.
+   *
+   * @param args the number of rounds, or "swing" and the path of the script.
+   * @throws Exception if a JVM cannot be started.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length == 2 && args[0].equals("swing")) {
+      startWithSwing(args[1]);
+      return;
+    }
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    File directory = Files.createTempDirectory("startup").toFile();
+    File script = new File(directory, "script.txt");
+    File source = new File(directory, "image.ppm");
+    File image = new File(directory, "image.jpg");
+    Files.write(source.toPath(), Arrays.asList("P3", "2 1", "255", "0 128 255 255 128 0"),
+            StandardCharsets.US_ASCII);
+    Files.write(script.toPath(), Arrays.asList("load " + source.getPath() + " a",
+            "brighten 10 a b", "save " + image.getPath() + " b", "q"), StandardCharsets.UTF_8);
+    try {
+      String java = System.getProperty("java.home") + File.separator + "bin"
+              + File.separator + "java";
+      String classPath = System.getProperty("java.class.path");
+      List<Long> headless = new ArrayList<>();
+      List<Long> swing = new ArrayList<>();
+      for (int round = 0; round < rounds; round++) {
+        headless.add(time(java, "-cp", classPath, "MainApp", "-file", script.getPath()));
+        swing.add(time(java, "-cp", classPath, "StartupBenchmark", "swing",
+                script.getPath()));
+      }
+      System.out.printf("headless script mode: %d ms%n", median(headless));
+      System.out.printf("view built first:     %d ms%n", median(swing));
+    } finally {
+      script.delete();
+      source.delete();
+      image.delete();
+      directory.delete();
+    }
+  }
+
+  private static void startWithSwing(String script) throws Exception {
+    if (GraphicsEnvironment.isHeadless()) {
+      Class.forName(ImageGraphicsView.class.getName(), true,
+              StartupBenchmark.class.getClassLoader());
+      UIManager.getLookAndFeelDefaults();
+    } else {
+      new ImageGraphicsView().dispose();
+    }
+    MainApp.main(new String[]{"-file", script});
+  }
+
+  private static long time(String... command) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command).redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+    if (process.waitFor() != 0) {
+      throw new IllegalStateException("The benchmark run failed: " + Arrays.toString(command));
+    }
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  private static long median(List<Long> times) {
+    List<Long> sorted = new ArrayList<>(times);
+    sorted.sort(null);
+    return sorted.get(sorted.size() / 2);
+  }
+}
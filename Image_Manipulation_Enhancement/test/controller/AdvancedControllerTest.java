@@ -5,9 +5,14 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.Random;
 import java.util.Scanner;
 
 import model.BetterColorImageProcessor;
@@ -15,8 +20,15 @@ import model.BetterImageProcessor;
 import model.ColorImage;
 import model.ColorPixel;
 import model.Image;
+import model.LazyColorImage;
+import model.TiledColorImage;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test class for AdvancedController controller.
@@ -873,4 +885,429 @@ public class AdvancedControllerTest {
     assertEquals(expectImage, actualImage);
 
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testScriptComponentsExtractedTogether() {
+    ColorImage source = new ColorImage(2, 2);
+    source.setPixel(0, 1, new ColorPixel(40, 80, 120));
+    HashMap<String, Image> image_names = new HashMap<>();
+    image_names.put("src", source);
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+
+    controller.executeCommands(new Scanner("red-component src r\n"
+        + "value-component src v\n"
+        + "rgb-split src r2 g2 b2\n"
+        + "luma-component src src\n"
+        + "intensity-component src i\n"));
+
+    assertEquals(40, image_names.get("r").getPixel(0, 1).getRed(), 0.001);
+    assertEquals(120, image_names.get("v").getPixel(0, 1).getRed(), 0.001);
+    assertEquals(80, image_names.get("g2").getPixel(0, 1).getGreen(), 0.001);
+    assertEquals(120, image_names.get("b2").getPixel(0, 1).getBlue(), 0.001);
+    double luma = 0.2126 * 40 + 0.7152 * 80 + 0.0722 * 120;
+    assertEquals(luma, image_names.get("src").getPixel(0, 1).getRed(), 0.001);
+    // the intensity is computed from the overwritten source
+    assertEquals(luma, image_names.get("i").getPixel(0, 1).getRed(), 0.001);
+  }
+
+  @Test
+  public void testRegionModifier() {
+    ColorImage source = new ColorImage(4, 6);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 6; j++) {
+        source.setPixel(i, j, new ColorPixel(100, 100, 100));
+      }
+    }
+    HashMap<String, Image> image_names = new HashMap<>();
+    image_names.put("src", source);
+    setInputStream("brighten 20 src dst region 1 2 3 1\nq");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+
+    controller.processCommand();
+
+    Image result = image_names.get("dst");
+    assertEquals(100, result.getPixel(2, 0).getRed(), 0.001);
+    assertEquals(120, result.getPixel(2, 1).getRed(), 0.001);
+    assertEquals(120, result.getPixel(2, 3).getRed(), 0.001);
+    assertEquals(100, result.getPixel(2, 4).getRed(), 0.001);
+    assertEquals(100, result.getPixel(1, 2).getRed(), 0.001);
+  }
+
+  private File randomPPM(File directory, int height, int width) {
+    Random random = new Random(7);
+    ColorImage image = new ColorImage(height, width);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image.setPixel(i, j, new ColorPixel(random.nextInt(256), random.nextInt(256),
+            random.nextInt(256)));
+      }
+    }
+    File file = new File(directory, "in.ppm");
+    new ImageUtil().savePPM(image, file.getPath(), "P6", 255);
+    return file;
+  }
+
+  @Test
+  public void testWorkingDirectory() throws IOException {
+    File directory = Files.createTempDirectory("relative").toFile();
+    randomPPM(directory, 6, 5);
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+    controller.setWorkingDirectory(directory.toPath());
+
+    controller.executeCommands(new Scanner("load in.ppm a\n"
+        + "sepia a b\n"
+        + "save out.ppm b\n"));
+
+    assertTrue(new File(directory, "out.ppm").length() > 0);
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testScriptChainStreamed() throws IOException {
+    File directory = Files.createTempDirectory("stream").toFile();
+    File input = randomPPM(directory, 50, 23);
+    File streamed = new File(directory, "streamed.ppm");
+    File expected = new File(directory, "expected.ppm");
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+        + "blur a b\n"
+        + "brighten 10 b c\n"
+        + "sharpen c d\n"
+        + "levels-adjust d e 20 128 230\n"
+        + "horizontal-flip e f\n"
+        + "save " + streamed.getPath() + " f P6\n"));
+
+    // the images of a streamed chain are never held
+    assertTrue(image_names.isEmpty());
+    ImageUtil util = new ImageUtil();
+    Image image = util.readPPM(input.getPath());
+    image = model.flipHorizontally(model.adjustLevels(model.sharpen(
+        model.brightenOrDarken(model.blur(image), 10)), 20, 128, 230));
+    util.savePPM(image, expected.getPath(), "P6", 255);
+    assertArrayEquals(Files.readAllBytes(expected.toPath()),
+        Files.readAllBytes(streamed.toPath()));
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testTilingCommand() throws IOException {
+    File directory = Files.createTempDirectory("tiling").toFile();
+    File input = randomPPM(directory, 50, 23);
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    AdvancedController controller = new AdvancedController(new BetterColorImageProcessor(),
+        in, out, image_names);
+
+    controller.executeCommands(new Scanner("tiling 100 8 2\n"
+        + "load " + input.getPath() + " a\n"
+        + "blur a b\n"));
+
+    TiledColorImage a = (TiledColorImage) ((LazyColorImage) image_names.get("a")).getImage();
+    assertEquals(8, a.getTileSize());
+    assertEquals(2 << 20, a.getTileCache().getMemoryBudget());
+    assertSame(a.getTileCache(), ((TiledColorImage) image_names.get("b")).getTileCache());
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testFailedStreamKeepsPreviousFile() throws IOException {
+    File directory = Files.createTempDirectory("stream").toFile();
+    File input = new File(directory, "truncated.ppm");
+    Files.write(input.toPath(), "P3\n4 4\n255\n1 2".getBytes(StandardCharsets.US_ASCII));
+    File output = new File(directory, "out.ppm");
+    byte[] previous = {1, 2, 3};
+    Files.write(output.toPath(), previous);
+    setInputStream("");
+    AdvancedController controller = new AdvancedController(new BetterColorImageProcessor(),
+        in, out, new HashMap<>());
+
+    try {
+      controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+          + "blur a b\n"
+          + "save " + output.getPath() + " b P6\n"));
+      fail("the truncated file should not have been read");
+    } catch (RuntimeException e) {
+      // expected
+    }
+    assertArrayEquals(previous, Files.readAllBytes(output.toPath()));
+    assertEquals(2, directory.listFiles().length);
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testScriptChainUsedLaterNotStreamed() throws IOException {
+    File directory = Files.createTempDirectory("stream").toFile();
+    File input = randomPPM(directory, 20, 10);
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+        + "sepia a b\n"
+        + "save " + new File(directory, "out.ppm").getPath() + " b\n"
+        + "vertical-flip b c\n"));
+
+    assertTrue(image_names.containsKey("b"));
+    assertTrue(image_names.containsKey("c"));
+    assertFalse(image_names.containsKey("d"));
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testLoadDecodesOnFirstUse() throws IOException {
+    File directory = Files.createTempDirectory("lazy").toFile();
+    File input = randomPPM(directory, 12, 9);
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " unused\n"
+        + "load " + input.getPath() + " used\n"
+        + "vertical-flip used flipped\n"));
+
+    assertFalse(((LazyColorImage) image_names.get("unused")).isDecoded());
+    assertTrue(((LazyColorImage) image_names.get("used")).isDecoded());
+    assertEquals(image_names.get("used").getPixel(0, 4).getRed(),
+        image_names.get("flipped").getPixel(11, 4).getRed(), 0.001);
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testPrefetchedLoads() throws IOException {
+    File directory = Files.createTempDirectory("prefetch").toFile();
+    File input = randomPPM(directory, 30, 20);
+    File png = new File(directory, "in.png");
+    ImageUtil util = new ImageUtil();
+    Image original = util.readPPM(input.getPath());
+    util.saveImage(original, png.getPath(), "png");
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+    controller.setPrefetch(2, Long.MAX_VALUE);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+        + "blur a b\n"
+        + "load " + png.getPath() + " c\n"
+        + "load " + input.getPath() + " d\n"
+        + "brighten 10 c e\n"
+        + "sepia d f\n"));
+
+    Image blurred = model.blur(original);
+    Image sepia = model.sepia(original);
+    for (int i = 0; i < 30; i++) {
+      for (int j = 0; j < 20; j++) {
+        assertEquals(blurred.getPixel(i, j).getGreen(),
+            image_names.get("b").getPixel(i, j).getGreen(), 0.001);
+        assertEquals(Math.min(255, original.getPixel(i, j).getRed() + 10),
+            image_names.get("e").getPixel(i, j).getRed(), 0.001);
+        assertEquals(sepia.getPixel(i, j).getBlue(),
+            image_names.get("f").getPixel(i, j).getBlue(), 0.001);
+      }
+    }
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testLoadAfterSaveNotPrefetched() throws IOException {
+    File directory = Files.createTempDirectory("prefetch").toFile();
+    File input = randomPPM(directory, 10, 10);
+    File output = new File(directory, "out.png");
+    ImageUtil util = new ImageUtil();
+    util.saveImage(new ColorImage(10, 10), output.getPath(), "png");
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+    controller.setPrefetch(2, Long.MAX_VALUE);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+        + "save " + output.getPath() + " a\n"
+        + "load " + output.getPath() + " b\n"
+        + "horizontal-flip b c\n"));
+
+    // the second load reads the file that the save wrote, not the black one before it
+    Image loaded = image_names.get("b");
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        assertEquals((int) image_names.get("a").getPixel(i, j).getRed(),
+            loaded.getPixel(i, j).getRed(), 0.001);
+      }
+    }
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testSaveOverLoadedFile() throws IOException {
+    File directory = Files.createTempDirectory("lazy").toFile();
+    File photo = randomPPM(directory, 20, 15);
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    ImageUtil util = new ImageUtil();
+    Image original = util.readPPM(photo.getPath());
+    File other = new File(directory, "x.ppm");
+    util.savePPM(model.sepia(model.flipVertically(original)), other.getPath(), "P6", 255);
+    File backup = new File(directory, "backup.ppm");
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+    controller.setSaveThreads(2);
+
+    controller.executeCommands(new Scanner("load " + photo.getPath() + " orig\n"
+        + "load " + other.getPath() + " x\n"
+        + "save " + photo.getPath() + " x\n"
+        + "save " + backup.getPath() + " orig\n"));
+
+    // the backup has the pixels the file had when it was loaded, not those saved over it
+    Image saved = util.readPPM(backup.getPath());
+    for (int i = 0; i < 20; i++) {
+      for (int j = 0; j < 15; j++) {
+        assertEquals(original.getPixel(i, j).getRed(), saved.getPixel(i, j).getRed(), 0.001);
+        assertEquals(original.getPixel(i, j).getBlue(), saved.getPixel(i, j).getBlue(),
+            0.001);
+      }
+    }
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testSaveWithQuality() throws IOException {
+    File directory = Files.createTempDirectory("quality").toFile();
+    File input = randomPPM(directory, 40, 30);
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+        + "save " + new File(directory, "low.jpg").getPath() + " a 5\n"
+        + "save " + new File(directory, "high.jpg").getPath() + " a 95 progressive\n"
+        + "save " + new File(directory, "stored.png").getPath() + " a 100\n"
+        + "save " + new File(directory, "small.png").getPath() + " a 0\n"));
+
+    assertTrue(new File(directory, "high.jpg").length()
+        > new File(directory, "low.jpg").length());
+    // the noise of the image does not compress, but both levels keep every pixel
+    Image stored = new ImageUtil().getImage(new File(directory, "stored.png").getPath());
+    Image small = new ImageUtil().getImage(new File(directory, "small.png").getPath());
+    for (int i = 0; i < 40; i++) {
+      for (int j = 0; j < 30; j++) {
+        assertEquals(stored.getPixel(i, j).getRed(), small.getPixel(i, j).getRed(), 0.001);
+      }
+    }
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testSavesToSamePathInOrder() throws IOException {
+    File directory = Files.createTempDirectory("saves").toFile();
+    File input = randomPPM(directory, 40, 30);
+    File output = new File(directory, "out.png");
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+    controller.setSaveThreads(2);
+
+    controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+        + "save " + output.getPath() + " a\n"
+        + "blur a b\n"
+        + "save " + output.getPath() + " b\n"
+        + "sepia a a\n"
+        + "save " + new File(directory, "other.png").getPath() + " a\n"));
+
+    // the last save to a file wins, and the script returns once both files are written
+    Image saved = new ImageUtil().getImage(output.getPath());
+    Image blurred = image_names.get("b");
+    for (int i = 0; i < 40; i++) {
+      for (int j = 0; j < 30; j++) {
+        assertEquals((int) blurred.getPixel(i, j).getRed(), saved.getPixel(i, j).getRed(),
+            0.001);
+      }
+    }
+    assertTrue(new File(directory, "other.png").length() > 0);
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testFailedSaveReportsCommand() throws IOException {
+    File directory = Files.createTempDirectory("saves").toFile();
+    File input = randomPPM(directory, 4, 4);
+    String save = "save " + new File(directory, "missing/out.png").getPath() + " a";
+    HashMap<String, Image> image_names = new HashMap<>();
+    setInputStream("");
+    BetterImageProcessor model = new BetterColorImageProcessor();
+    AdvancedController controller = new AdvancedController(model, in, out, image_names);
+    controller.setSaveThreads(1);
+
+    try {
+      controller.executeCommands(new Scanner("load " + input.getPath() + " a\n"
+          + save + "\n"
+          + "blur a b\n"));
+      fail("the failed save should be reported");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains(save));
+    }
+    // the commands after the save still ran
+    assertTrue(image_names.containsKey("b"));
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+}
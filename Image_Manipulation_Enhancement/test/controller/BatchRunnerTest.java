@@ -0,0 +1,159 @@
+package controller;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import model.BetterColorImageProcessor;
+import model.BetterImageProcessor;
+import model.ColorImage;
+import model.ColorPixel;
+import model.Image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for running a script for every image of a directory.
+ */
+public class BatchRunnerTest {
+
+  private final BetterImageProcessor model = new BetterColorImageProcessor();
+  private final ImageUtil util = new ImageUtil();
+
+  private ColorImage randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    ColorImage image = new ColorImage(height, width);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image.setPixel(i, j, new ColorPixel(random.nextInt(256), random.nextInt(256),
+            random.nextInt(256)));
+      }
+    }
+    return image;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    for (File file : directory.toFile().listFiles()) {
+      if (file.isDirectory()) {
+        delete(file.toPath());
+      } else {
+        Files.delete(file.toPath());
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void testScriptRunsForEveryImage() throws IOException {
+    Path input = Files.createTempDirectory("batch-in");
+    Path output = input.resolve("out");
+    ColorImage[] images = new ColorImage[3];
+    for (int k = 0; k < 3; k++) {
+      images[k] = randomImage(10 + k, 20, k);
+      util.savePNG(images[k], input.resolve("image" + k + ".png").toString());
+    }
+    Files.write(input.resolve("notes.txt"), Arrays.asList("not an image"));
+    List<String> script = Arrays.asList("load $in img", "horizontal-flip img flipped",
+        "save $out flipped", "save " + output + "/$name-copy.ppm img");
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    int failed = new BatchRunner(model, 2, 64 << 20, new PrintStream(log)).run(script,
+        input, output);
+
+    assertEquals(0, failed);
+    for (int k = 0; k < 3; k++) {
+      Image flipped = util.getImage(output.resolve("image" + k + ".png").toString());
+      Image expected = model.flipHorizontally(images[k]);
+      assertEquals(10 + k, flipped.getHeight());
+      for (int i = 0; i < flipped.getHeight(); i++) {
+        for (int j = 0; j < 20; j++) {
+          assertEquals(expected.getPixel(i, j).getRed(), flipped.getPixel(i, j).getRed(),
+              0.001);
+          assertEquals(expected.getPixel(i, j).getBlue(), flipped.getPixel(i, j).getBlue(),
+              0.001);
+        }
+      }
+      assertTrue(Files.exists(output.resolve("image" + k + "-copy.ppm")));
+    }
+    assertFalse(Files.exists(output.resolve("notes.txt")));
+    assertTrue(log.toString().contains("Processed 3 files, 0 failed"));
+    delete(input);
+  }
+
+  @Test
+  public void testFailedFileDoesNotStopTheOthers() throws IOException {
+    Path input = Files.createTempDirectory("batch-in");
+    Path output = Files.createTempDirectory("batch-out");
+    util.savePNG(randomImage(8, 8, 1), input.resolve("a.png").toString());
+    Files.write(input.resolve("b.png"), new byte[]{1, 2, 3});
+    util.savePNG(randomImage(8, 8, 2), input.resolve("c.png").toString());
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    // a budget far below the images still runs them, one at a time
+    int failed = new BatchRunner(model, 3, 1024, new PrintStream(log)).run(
+        Arrays.asList("load $in img", "blur img img", "save $out img"), input, output);
+
+    assertEquals(1, failed);
+    assertTrue(Files.exists(output.resolve("a.png")));
+    assertFalse(Files.exists(output.resolve("b.png")));
+    assertTrue(Files.exists(output.resolve("c.png")));
+    assertTrue(log.toString().contains("b.png failed"));
+    assertTrue(log.toString().contains("Processed 3 files, 1 failed"));
+    delete(input);
+    delete(output);
+  }
+
+  @Test
+  public void testFailedSaveLeavesNoFile() throws IOException {
+    Path input = Files.createTempDirectory("batch-in");
+    Path output = Files.createTempDirectory("batch-out");
+    util.savePNG(randomImage(8, 8, 1), input.resolve("a.png").toString());
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    int failed = new BatchRunner(model, 1, 1 << 20, new PrintStream(log)).run(
+        Arrays.asList("load $in img", "save $out missing"), input, output);
+
+    assertEquals(1, failed);
+    assertEquals(0, output.toFile().listFiles().length);
+    delete(input);
+    delete(output);
+  }
+
+  @Test
+  public void testDottedOutputDirectory() throws IOException {
+    Path input = Files.createTempDirectory("batch-in");
+    Path output = input.resolve("./out.dir");
+    util.savePNG(randomImage(6, 9, 4), input.resolve("image.png").toString());
+    ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    int failed = new BatchRunner(model, 1, 1 << 20, new PrintStream(log)).run(
+        Arrays.asList("load $in img", "sepia img img", "save $out img",
+            "save $out.ppm img"), input.resolve("."), output);
+
+    assertEquals(log.toString(), 0, failed);
+    assertEquals(9, util.getImage(output.resolve("image.png").toString()).getWidth());
+    assertTrue(Files.size(output.resolve("image.png.ppm")) > 0);
+    delete(input);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInputNotADirectory() throws IOException {
+    Path file = Files.createTempFile("batch", ".png");
+    try {
+      new BatchRunner(model, 1, 1 << 20, new PrintStream(new ByteArrayOutputStream()))
+          .run(Arrays.asList("load $in img"), file, file.resolveSibling("out"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package controller;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Times decoding every JPEG and PNG image in a directory, res by default, and encoding it
+ * as a JPEG file, with the ImageIO convenience methods, which look up and create a new
+ * codec for every file, and with the codecs that ImageUtil reuses. Both decode into the
+ * same kind of image and encode the same image. Each image is done a number of rounds,
+ * 10 by default, after as many rounds to warm up.
+ *
+ * <p>Run from the project directory, with the compiled sources and tests on the class
+ * path: {@code java controller.CodecBenchmark [directory] [rounds]}.
+ */
+public class CodecBenchmark {
+
+  /**
+   * Runs the benchmark and prints the time of each image and the totals.
+   *
+   * @param args the directory of the images and the number of rounds, both optional.
+   * @throws IOException if an image cannot be read or written.
+   */
+  public static void main(String[] args) throws IOException {
+    File directory = new File(args.length > 0 ? args[0] : "res");
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(".jpg")
+            || name.endsWith(".png"));
+    if (files == null || files.length == 0) {
+      System.out.println("No JPEG or PNG images in " + directory);
+      return;
+    }
+    Arrays.sort(files);
+    File output = Files.createTempFile("benchmark", ".jpg").toFile();
+    long[] totals = new long[4];
+    try {
+      System.out.printf("%-40s %12s %12s %12s %12s%n", "image (ms per round)",
+              "ImageIO read", "reused read", "ImageIO jpg", "reused jpg");
+      for (File file : files) {
+        long[] times = new long[4];
+        for (int round = -rounds; round < rounds; round++) {
+          long start = System.nanoTime();
+          BufferedImage decoded = ImageIO.read(file);
+          long read = System.nanoTime();
+          try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = Codecs.reader(input, file.getPath());
+            try {
+              reader.setInput(input, false, true);
+              decoded = reader.read(0);
+            } finally {
+              Codecs.release(reader, file.getPath());
+            }
+          }
+          long cachedRead = System.nanoTime();
+          // JPEG files have no alpha
+          BufferedImage opaque = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+                  BufferedImage.TYPE_3BYTE_BGR);
+          opaque.getGraphics().drawImage(decoded, 0, 0, null);
+          long converted = System.nanoTime();
+          ImageIO.write(opaque, "jpg", output);
+          long write = System.nanoTime();
+          ImageUtil.write(opaque, output.getPath(), "jpg", -1, false);
+          long cachedWrite = System.nanoTime();
+          if (round >= 0) {
+            times[0] += read - start;
+            times[1] += cachedRead - read;
+            times[2] += write - converted;
+            times[3] += cachedWrite - write;
+          }
+        }
+        System.out.printf("%-40s %12.2f %12.2f %12.2f %12.2f%n", file.getName(),
+                times[0] / 1e6 / rounds, times[1] / 1e6 / rounds, times[2] / 1e6 / rounds,
+                times[3] / 1e6 / rounds);
+        for (int i = 0; i < 4; i++) {
+          totals[i] += times[i];
+        }
+      }
+      System.out.printf("%-40s %12.2f %12.2f %12.2f %12.2f%n", "total",
+              totals[0] / 1e6 / rounds, totals[1] / 1e6 / rounds, totals[2] / 1e6 / rounds,
+              totals[3] / 1e6 / rounds);
+    } finally {
+      output.delete();
+    }
+  }
+}
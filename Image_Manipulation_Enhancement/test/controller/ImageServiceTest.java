@@ -0,0 +1,187 @@
+package controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import model.BetterColorImageProcessor;
+import model.BetterImageProcessor;
+import model.ColorImage;
+import model.ColorPixel;
+import model.Image;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for processing images posted to an ImageService.
+ */
+public class ImageServiceTest {
+
+  private final BetterImageProcessor model = new BetterColorImageProcessor();
+  private final ImageUtil util = new ImageUtil();
+  private ImageService service;
+  private byte[] png;
+  private Image image;
+
+  @Before
+  public void setUp() throws IOException {
+    service = new ImageService(model, 0, 2, 64 << 20);
+    service.start();
+    Random random = new Random(3);
+    ColorImage source = new ColorImage(30, 40);
+    for (int i = 0; i < 30; i++) {
+      for (int j = 0; j < 40; j++) {
+        source.setPixel(i, j, new ColorPixel(random.nextInt(256), random.nextInt(256),
+            random.nextInt(256)));
+      }
+    }
+    png = util.encode(source, "png", -1);
+    image = util.openImage(png);
+  }
+
+  @After
+  public void tearDown() {
+    service.close();
+  }
+
+  private HttpURLConnection post(String query, byte[] body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:"
+        + service.getPort() + "/process?" + query).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body);
+    }
+    return connection;
+  }
+
+  @Test
+  public void testProcessChain() throws IOException {
+    HttpURLConnection connection = post("ops=horizontal-flip,brighten:20,blur", png);
+
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("image/png", connection.getContentType());
+    Image result;
+    try (InputStream in = connection.getInputStream()) {
+      result = util.toColorImage(ImageIO.read(in));
+    }
+    Image expected = model.blur(model.brightenOrDarken(model.flipHorizontally(image), 20));
+    for (int i = 0; i < 30; i++) {
+      for (int j = 0; j < 40; j++) {
+        assertEquals((int) expected.getPixel(i, j).getRed(), result.getPixel(i, j).getRed(),
+            0.001);
+      }
+    }
+  }
+
+  @Test
+  public void testJPEGResult() throws IOException {
+    HttpURLConnection connection = post("ops=sepia&format=jpg&quality=90", png);
+
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("image/jpeg", connection.getContentType());
+    assertEquals(40, ImageIO.read(connection.getInputStream()).getWidth());
+  }
+
+  @Test
+  public void testMalformedRequests() throws IOException {
+    assertEquals(400, post("ops=nope", png).getResponseCode());
+    assertEquals(400, post("ops=brighten", png).getResponseCode());
+    assertEquals(400, post("ops=levels-adjust:30:20:10", png).getResponseCode());
+    assertEquals(400, post("ops=blur&format=xyz", png).getResponseCode());
+    assertEquals(400, post("ops=blur", new byte[]{1, 2, 3}).getResponseCode());
+    HttpURLConnection get = (HttpURLConnection) new URL("http://localhost:"
+        + service.getPort() + "/process?ops=blur").openConnection();
+    assertEquals(405, get.getResponseCode());
+  }
+
+  @Test
+  public void testImageOverBudget() throws IOException {
+    service.close();
+    // 1200 pixels take about 117 kilobytes
+    service = new ImageService(model, 0, 1, 100 << 10);
+    service.start();
+
+    assertEquals(413, post("ops=blur", png).getResponseCode());
+  }
+
+  @Test
+  public void testBodyTakesBudgetWhileItIsRead() throws Exception {
+    service.close();
+    service = new ImageService(model, 0, 1, 100 << 10);
+    service.start();
+    HttpURLConnection reading = (HttpURLConnection) new URL("http://localhost:"
+        + service.getPort() + "/process?ops=blur").openConnection();
+    reading.setRequestMethod("POST");
+    reading.setDoOutput(true);
+    // the declared length is reserved as soon as the request is handled
+    reading.setFixedLengthStreamingMode(60 << 10);
+    OutputStream partial = reading.getOutputStream();
+    partial.write(new byte[30 << 10]);
+    partial.flush();
+    Thread.sleep(200);
+
+    // while the first body is still being read, a second one does not fit beside it
+    int status = 0;
+    for (long deadline = System.currentTimeMillis() + 10000;
+         status != 503 && System.currentTimeMillis() < deadline; Thread.sleep(20)) {
+      status = post("ops=blur", new byte[60 << 10]).getResponseCode();
+    }
+    assertEquals(503, status);
+    partial.write(new byte[30 << 10]);
+    partial.close();
+    assertEquals(400, reading.getResponseCode());
+    // the first body is given back just after its response, so a client may retry once
+    for (long deadline = System.currentTimeMillis() + 10000;
+         status == 503 && System.currentTimeMillis() < deadline; Thread.sleep(20)) {
+      status = post("ops=blur", new byte[60 << 10]).getResponseCode();
+    }
+    assertEquals(400, status);
+  }
+
+  @Test
+  public void testIdenticalRequestsShareTheirImageBudget() throws Exception {
+    service.close();
+    // the image takes about 117 kilobytes once, and its body less than 4
+    service = new ImageService(model, 0, 1, 200 << 10);
+    service.start();
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> statuses = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      statuses.add(clients.submit(() -> post("ops=blur", png).getResponseCode()));
+    }
+
+    for (Future<Integer> status : statuses) {
+      assertEquals(200, (int) status.get());
+    }
+    clients.shutdown();
+  }
+
+  @Test
+  public void testDeclaredBodyOverBudget() throws IOException {
+    service.close();
+    service = new ImageService(model, 0, 1, 100 << 10);
+    service.start();
+
+    assertEquals(413, post("ops=blur", new byte[200 << 10]).getResponseCode());
+  }
+
+  @Test
+  public void testEmptyBodyIsNotAnImage() throws IOException {
+    assertEquals(400, post("ops=blur", new byte[0]).getResponseCode());
+  }
+}
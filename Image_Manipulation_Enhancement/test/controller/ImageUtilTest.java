@@ -0,0 +1,552 @@
+package controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+
+import model.BufferedColorImage;
+import model.ColorImage;
+import model.ColorPixel;
+import model.Image;
+import model.LazyColorImage;
+import model.PlanarColorImage;
+import model.TiledColorImage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for reading and writing images with ImageUtil.
+ */
+public class ImageUtilTest {
+
+  private ImageUtil util;
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    util = new ImageUtil();
+    directory = Files.createTempDirectory("imageutil").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private Image randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    Image image = new ColorImage(height, width);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image.setPixel(i, j, new ColorPixel(random.nextInt(256), random.nextInt(256),
+            random.nextInt(256)));
+      }
+    }
+    return image;
+  }
+
+  private void assertSameImage(Image expected, Image actual) {
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    for (int i = 0; i < expected.getHeight(); i++) {
+      for (int j = 0; j < expected.getWidth(); j++) {
+        assertEquals(expected.getPixel(i, j).getRed(), actual.getPixel(i, j).getRed(), 0.0001);
+        assertEquals(expected.getPixel(i, j).getGreen(), actual.getPixel(i, j).getGreen(),
+            0.0001);
+        assertEquals(expected.getPixel(i, j).getBlue(), actual.getPixel(i, j).getBlue(),
+            0.0001);
+      }
+    }
+  }
+
+  private String path(String name) {
+    return new File(directory, name).getPath();
+  }
+
+  @Test
+  public void testPlainPPMRoundTrip() {
+    Image image = randomImage(37, 53, 1);
+    util.savePPM(image, path("image.ppm"));
+
+    assertSameImage(image, util.readPPM(path("image.ppm")));
+  }
+
+  @Test
+  public void testPlainPPMComments() throws IOException {
+    String text = "P3 # magic\n# a comment line\n2 1\n#another\n255\n"
+        + "1 2 3# trailing\n  4\t5\n6";
+    Files.write(new File(path("comments.ppm")).toPath(),
+        text.getBytes(StandardCharsets.US_ASCII));
+
+    Image image = util.readPPM(path("comments.ppm"));
+
+    assertEquals(1, image.getHeight());
+    assertEquals(2, image.getWidth());
+    assertEquals(3, image.getPixel(0, 0).getBlue(), 0.0001);
+    assertEquals(4, image.getPixel(0, 1).getRed(), 0.0001);
+    assertEquals(6, image.getPixel(0, 1).getBlue(), 0.0001);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testPlainPPMTruncated() throws IOException {
+    Files.write(new File(path("short.ppm")).toPath(),
+        "P3 2 2 255 1 2 3".getBytes(StandardCharsets.US_ASCII));
+
+    util.readPPM(path("short.ppm"));
+  }
+
+  @Test
+  public void testBinaryPPMRoundTrip() throws IOException {
+    Image image = randomImage(29, 31, 2);
+    util.savePPM(image, path("image6.ppm"), "P6", 255);
+
+    assertEquals(3 * 29 * 31 + "P6\n31 29\n255\n".length(),
+        new File(path("image6.ppm")).length());
+    assertSameImage(image, util.readPPM(path("image6.ppm")));
+  }
+
+  @Test
+  public void testSixteenBitPPMKeepsFractions() {
+    Image image = new ColorImage(1, 2);
+    image.setPixel(0, 0, new ColorPixel(12.5, 0, 255));
+    image.setPixel(0, 1, new ColorPixel(100.25, 200.75, 1));
+    util.savePPM(image, path("deep.ppm"), "P6", 65535);
+
+    Image read = util.readPPM(path("deep.ppm"));
+
+    assertEquals(12.5, read.getPixel(0, 0).getRed(), 0.01);
+    assertEquals(255, read.getPixel(0, 0).getBlue(), 0.01);
+    assertEquals(200.75, read.getPixel(0, 1).getGreen(), 0.01);
+  }
+
+  @Test
+  public void testBinaryPGMRoundTrip() {
+    Image image = new ColorImage(2, 2);
+    image.setPixel(0, 1, new ColorPixel(80, 80, 80));
+    image.setPixel(1, 0, new ColorPixel(200, 200, 200));
+    util.savePPM(image, path("grey.pgm"), "P5", 255);
+
+    Image read = util.readPPM(path("grey.pgm"));
+
+    assertEquals(80, read.getPixel(0, 1).getRed(), 0.0001);
+    assertEquals(80, read.getPixel(0, 1).getBlue(), 0.0001);
+    assertEquals(200, read.getPixel(1, 0).getGreen(), 0.0001);
+    assertEquals(0, read.getPixel(1, 1).getGreen(), 0.0001);
+  }
+
+  @Test
+  public void testPlainPPMText() throws IOException {
+    Image image = new ColorImage(2, 2);
+    image.setPixel(0, 0, new ColorPixel(255, 10.7, 0));
+    image.setPixel(1, 1, new ColorPixel(1, 99, 100));
+    util.savePPM(image, path("text.ppm"));
+
+    String text = new String(Files.readAllBytes(new File(path("text.ppm")).toPath()),
+        StandardCharsets.US_ASCII);
+
+    assertEquals("P3\n2 2\n255\n255 10 0 0 0 0 \n0 0 0 1 99 100 \n", text);
+  }
+
+  @Test
+  public void testPlainPPMInParallelChunks() {
+    Image image = randomImage(400, 600, 3);
+    util.savePPM(image, path("chunks.ppm"));
+
+    assertSameImage(image, util.readPPM(path("chunks.ppm")));
+  }
+
+  @Test
+  public void testPNGRoundTrip() throws IOException {
+    Image image = randomImage(300, 400, 4);
+    util.saveImage(image, path("image.png"), "png");
+
+    assertSameImage(image, util.getImage(path("image.png")));
+  }
+
+  @Test
+  public void testOpenImageDecodesOnFirstUse() throws IOException {
+    Image image = randomImage(30, 40, 9);
+    util.saveImage(image, path("image.png"), "png");
+    util.savePPM(image, path("image.ppm"), "P6", 255);
+
+    LazyColorImage png = util.openImage(path("image.png"));
+    LazyColorImage ppm = util.openImage(path("image.ppm"));
+    assertEquals(30, png.getHeight());
+    assertEquals(40, png.getWidth());
+    assertEquals(30, ppm.getHeight());
+    assertEquals(40, ppm.getWidth());
+    assertFalse(png.isDecoded());
+    assertFalse(ppm.isDecoded());
+
+    assertSameImage(image, png);
+    assertTrue(png.isDecoded());
+    assertTrue(png.getImage() instanceof BufferedColorImage);
+    assertSameImage(image, ppm);
+  }
+
+  @Test(expected = IOException.class)
+  public void testOpenMissingImage() throws IOException {
+    util.openImage(path("missing.png"));
+  }
+
+  @Test
+  public void testPNGSameForAnyThreadCount() throws IOException {
+    // several chunks of rows, the last one shorter
+    Image image = randomImage(700, 300, 10);
+    ByteArrayOutputStream single = new ByteArrayOutputStream();
+    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+    ExecutorService one = Executors.newSingleThreadExecutor();
+    ExecutorService four = Executors.newFixedThreadPool(4);
+    try {
+      new PNGWriter(Channels.newChannel(single), 6, one, 1).write(image);
+      new PNGWriter(Channels.newChannel(parallel), 6, four, 8).write(image);
+    } finally {
+      one.shutdown();
+      four.shutdown();
+    }
+
+    assertArrayEquals(single.toByteArray(), parallel.toByteArray());
+    Files.write(new File(path("parallel.png")).toPath(), parallel.toByteArray());
+    assertSameImage(image, util.getImage(path("parallel.png")));
+  }
+
+  @Test
+  public void testPNGCompressionLevels() throws IOException {
+    Image image = new ColorImage(120, 90);
+    for (int i = 0; i < 120; i++) {
+      for (int j = 0; j < 90; j++) {
+        image.setPixel(i, j, new ColorPixel(i * 2, j * 2, (i + j) % 256));
+      }
+    }
+    util.setPNGCompression(0);
+    util.saveImage(image, path("stored.png"), "png");
+    util.setPNGCompression(9);
+    util.saveImage(image, path("smallest.png"), "png");
+
+    assertTrue(new File(path("stored.png")).length()
+        > new File(path("smallest.png")).length());
+    assertSameImage(image, util.getImage(path("stored.png")));
+    assertSameImage(image, util.getImage(path("smallest.png")));
+  }
+
+  @Test
+  public void testCombineAdler() {
+    byte[] bytes = new byte[200000];
+    new Random(12).nextBytes(bytes);
+    Adler32 whole = new Adler32();
+    whole.update(bytes);
+    Adler32 first = new Adler32();
+    first.update(bytes, 0, 70001);
+    Adler32 second = new Adler32();
+    second.update(bytes, 70001, bytes.length - 70001);
+
+    assertEquals(whole.getValue(), PNGWriter.combineAdler(first.getValue(),
+        second.getValue(), bytes.length - 70001));
+  }
+
+  @Test
+  public void testBufferedPNGRoundTrip() throws IOException {
+    Image image = util.toColorImage(util.toBufferedImage(randomImage(50, 70, 7),
+        BufferedImage.TYPE_INT_RGB));
+    util.saveImage(image, path("buffered.png"), "png");
+
+    Image loaded = util.getImage(path("buffered.png"));
+
+    assertTrue(loaded instanceof BufferedColorImage);
+    assertSameImage(image, loaded);
+  }
+
+  @Test
+  public void testBMPRoundTrip() throws IOException {
+    Image image = randomImage(41, 23, 5);
+    util.saveImage(image, path("image.bmp"), "bmp");
+
+    assertSameImage(image, util.getImage(path("image.bmp")));
+  }
+
+  @Test
+  public void testJPEGQuality() throws IOException {
+    Image image = randomImage(64, 64, 11);
+    util.saveImage(image, path("low.jpg"), "jpg", 10, false);
+    util.saveImage(image, path("high.jpg"), "jpg", 95, false);
+    util.saveImage(image, path("progressive.jpg"), "jpg", 95, true);
+
+    assertTrue(new File(path("high.jpg")).length() > new File(path("low.jpg")).length());
+    assertFalse(Arrays.equals(Files.readAllBytes(new File(path("high.jpg")).toPath()),
+        Files.readAllBytes(new File(path("progressive.jpg")).toPath())));
+    assertEquals(64, util.getImage(path("progressive.jpg")).getWidth());
+  }
+
+  @Test
+  public void testSaveReplacesLongerFile() throws IOException {
+    Image image = randomImage(64, 64, 13);
+    util.saveImage(image, path("image.jpg"), "jpg", 100, false);
+    util.saveImage(image, path("image.jpg"), "jpg", 0, false);
+    util.saveImage(image, path("image.bmp"), "bmp");
+    util.saveImage(new ColorImage(2, 2), path("image.bmp"), "bmp");
+
+    assertEquals(2, util.getImage(path("image.bmp")).getHeight());
+    assertEquals(64, util.getImage(path("image.jpg")).getHeight());
+  }
+
+  @Test
+  public void testReadersReusedAcrossFormats() throws IOException {
+    Image image = randomImage(30, 20, 17);
+    util.saveImage(image, path("image.png"), "png");
+    util.saveImage(image, path("image.bmp"), "bmp");
+    // a BMP file named as a PNG file is still decoded
+    Files.copy(new File(path("image.bmp")).toPath(), new File(path("bmp.png")).toPath());
+
+    for (int i = 0; i < 3; i++) {
+      assertSameImage(image, util.getImage(path("image.png")));
+      assertSameImage(image, util.getImage(path("bmp.png")));
+      assertSameImage(image, util.getImage(path("image.bmp")));
+    }
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testSaveUnsupportedFormat() {
+    util.saveImage(randomImage(4, 4, 1), path("image.xyz"), "xyz");
+  }
+
+  @Test
+  public void testFailedSaveKeepsPreviousFile() throws IOException {
+    byte[] previous = {1, 2, 3};
+    Files.write(new File(path("image.xyz")).toPath(), previous);
+
+    try {
+      util.saveImage(randomImage(4, 4, 1), path("image.xyz"), "xyz");
+      fail("the save should have failed");
+    } catch (RuntimeException e) {
+      // expected
+    }
+    assertArrayEquals(previous, Files.readAllBytes(new File(path("image.xyz")).toPath()));
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test
+  public void testFailedPNGSaveKeepsPreviousFile() throws IOException {
+    byte[] previous = {1, 2, 3};
+    Files.write(new File(path("image.png")).toPath(), previous);
+
+    try {
+      util.savePNG(new ColorImage(0, 0), path("image.png"));
+      fail("the save should have failed");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertArrayEquals(previous, Files.readAllBytes(new File(path("image.png")).toPath()));
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test
+  public void testInvalidPPMSaveKeepsPreviousFile() throws IOException {
+    byte[] previous = {1, 2, 3};
+    Files.write(new File(path("image.ppm")).toPath(), previous);
+
+    for (Object[] save : new Object[][] {{"P7", 255}, {"P6", 70000}, {"P3", 65535}}) {
+      try {
+        util.savePPM(randomImage(4, 4, 1), path("image.ppm"), (String) save[0],
+            (Integer) save[1]);
+        fail("the save should have failed");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertArrayEquals(previous, Files.readAllBytes(new File(path("image.ppm")).toPath()));
+    }
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSaveQualityOutOfRange() {
+    util.saveImage(randomImage(4, 4, 1), path("image.jpg"), "jpg", 101, false);
+  }
+
+  @Test
+  public void testSubsampledRegion() throws IOException {
+    Image image = randomImage(50, 70, 19);
+    util.saveImage(image, path("image.png"), "png");
+
+    Image region = util.getImage(path("image.png"), 10, 5, 31, 20, 3);
+    assertEquals(7, region.getHeight());
+    assertEquals(11, region.getWidth());
+    for (int i = 0; i < 7; i++) {
+      for (int j = 0; j < 11; j++) {
+        assertEquals(image.getPixel(5 + 3 * i, 10 + 3 * j).getGreen(),
+            region.getPixel(i, j).getGreen(), 0.001);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegionOutsideImage() throws IOException {
+    util.saveImage(randomImage(10, 10, 1), path("image.png"), "png");
+    util.getImage(path("image.png"), 5, 5, 6, 2, 1);
+  }
+
+  @Test
+  public void testPreviewSize() throws IOException {
+    util.saveImage(randomImage(90, 160, 23), path("image.png"), "png");
+
+    Image preview = util.getPreview(path("image.png"), 1000);
+    assertTrue((long) preview.getHeight() * preview.getWidth() <= 1000);
+    // one pixel in every four rows and columns
+    assertEquals(23, preview.getHeight());
+    assertEquals(40, preview.getWidth());
+    assertEquals(90, util.getPreview(path("image.png"), 100000).getHeight());
+  }
+
+  @Test
+  public void testBufferedImageConversion() {
+    Image image = randomImage(300, 250, 6);
+    image.setPixel(0, 0, new ColorPixel(12.7, 300, -4));
+    BufferedImage buffered = util.toBufferedImage(image, BufferedImage.TYPE_INT_RGB);
+
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        Color color = new Color(buffered.getRGB(j, i));
+        assertEquals((int) image.getPixel(i, j).getRed(), color.getRed());
+        assertEquals((int) image.getPixel(i, j).getGreen(), color.getGreen());
+        assertEquals((int) image.getPixel(i, j).getBlue(), color.getBlue());
+      }
+    }
+    image.setPixel(0, 0, new ColorPixel(12, 255, 0));
+    assertSameImage(image, util.toColorImage(buffered));
+  }
+
+  @Test
+  public void testBufferedImageShared() {
+    BufferedImage buffered = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+    Image image = util.toColorImage(buffered);
+
+    image.setPixel(2, 1, new ColorPixel(10, 20, 30.9));
+    buffered.setRGB(3, 0, 0x405060);
+
+    assertTrue(image instanceof BufferedColorImage);
+    assertEquals(0x0A141E, buffered.getRGB(1, 2) & 0xFFFFFF);
+    assertEquals(0x50, image.getPixel(0, 3).getGreen(), 0.0001);
+    assertSame(buffered, util.toBufferedImage(image, BufferedImage.TYPE_INT_RGB));
+  }
+
+  @Test
+  public void testConversionFromOtherImageTypes() {
+    BufferedImage grey = new BufferedImage(3, 2, BufferedImage.TYPE_BYTE_GRAY);
+    grey.getRaster().setSample(2, 1, 0, 77);
+
+    Image image = util.toColorImage(grey);
+
+    assertEquals(2, image.getHeight());
+    assertEquals(3, image.getWidth());
+    assertEquals(0, image.getPixel(0, 0).getRed(), 0.0001);
+    assertEquals(new Color(grey.getRGB(2, 1)).getGreen(), image.getPixel(1, 2).getGreen(),
+        0.0001);
+  }
+
+  @Test
+  public void testSnapshotRoundTrip() {
+    Image image = randomImage(45, 38, 8);
+    util.saveSnapshot(image, path("image.snap"));
+
+    assertEquals(16 + 3 * 45 * 38, new File(path("image.snap")).length());
+    Image mapped = util.readSnapshot(path("image.snap"));
+    assertTrue(mapped instanceof PlanarColorImage);
+    assertSameImage(image, mapped);
+
+    // changes stay in memory and do not reach the file
+    mapped.setPixel(3, 4, new ColorPixel(1, 2, 3.5));
+    assertEquals(3, mapped.getPixel(3, 4).getBlue(), 0.0001);
+    assertSameImage(image, util.readSnapshot(path("image.snap")));
+  }
+
+  @Test
+  public void testSnapshotSavedOverItsSource() {
+    Image image = randomImage(400, 300, 21);
+    util.saveSnapshot(image, path("image.snap"));
+    Image mapped = util.readSnapshot(path("image.snap"));
+
+    util.saveSnapshot(mapped, path("image.snap"));
+    util.savePPM(mapped, path("image.ppm"), "P6", 255);
+
+    assertSameImage(image, mapped);
+    assertSameImage(image, util.readSnapshot(path("image.snap")));
+    assertSameImage(image, util.readPPM(path("image.ppm")));
+    assertEquals(2, directory.listFiles().length);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testSnapshotTruncated() throws IOException {
+    util.saveSnapshot(randomImage(10, 10, 9), path("short.snap"));
+    byte[] bytes = Files.readAllBytes(new File(path("short.snap")).toPath());
+    Files.write(new File(path("short.snap")).toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+
+    util.readSnapshot(path("short.snap"));
+  }
+
+  @Test
+  public void testSnapshotCache() throws IOException {
+    Image image = randomImage(30, 20, 10);
+    util.saveImage(image, path("cached.png"), "png");
+    File cache = new File(directory, "cache");
+    util.setSnapshotCache(cache);
+
+    assertSameImage(image, util.getImage(path("cached.png")));
+    assertEquals(1, cache.listFiles().length);
+    Image cached = util.getImage(path("cached.png"));
+    assertTrue(cached instanceof PlanarColorImage);
+    assertSameImage(image, cached);
+
+    for (File file : cache.listFiles()) {
+      file.delete();
+    }
+    cache.delete();
+  }
+
+  @Test
+  public void testTiledLoadAndSave() throws IOException {
+    Image image = randomImage(70, 90, 11);
+    util.saveImage(image, path("large.png"), "png");
+    util.saveImage(image, path("large.bmp"), "bmp");
+    util.savePPM(image, path("large.ppm"), "P6", 255);
+    util.setTiling(1000, 16, 0);
+
+    // the PNG reader decodes into the tiles, and the BMP reader one band at a time
+    Image png = util.getImage(path("large.png"));
+    Image bmp = util.getImage(path("large.bmp"));
+    Image ppm = util.readPPM(path("large.ppm"));
+    assertTrue(png instanceof TiledColorImage);
+    assertTrue(bmp instanceof TiledColorImage);
+    assertTrue(ppm instanceof TiledColorImage);
+    assertSameImage(image, png);
+    assertSameImage(image, bmp);
+    assertSameImage(image, ppm);
+
+    util.saveImage(png, path("tiled.png"), "png");
+    util.setTiling(Long.MAX_VALUE, 16, 0);
+    assertSameImage(image, util.getImage(path("tiled.png")));
+  }
+}
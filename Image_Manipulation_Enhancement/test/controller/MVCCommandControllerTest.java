@@ -1,14 +1,22 @@
 package controller;
 
 import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
 import org.junit.Test;
 
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import model.BetterImageProcessor;
+import model.ColorImage;
 import model.Image;
 import view.IView;
 
@@ -146,6 +154,16 @@ public class MVCCommandControllerTest {
       return images;
     }
 
+    @Override
+    public HashMap<String, Image> extractComponents(Image image, Set<String> components) {
+      log.append("extractComponents called.");
+      HashMap<String, Image> images = new HashMap<>();
+      for (String component : components) {
+        images.put(component, image);
+      }
+      return images;
+    }
+
     @Override
     public Image flipHorizontally(Image image) {
       log.append("flipHorizontally called.");
@@ -469,4 +487,35 @@ public class MVCCommandControllerTest {
     controller.executeGUI();
     assertEquals("dither called.histogram called.", log.toString());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testOpenImageShowsPreviewFirst() throws Exception {
+    File directory = Files.createTempDirectory("preview").toFile();
+    String path = new File(directory, "large.png").getPath();
+    new ImageUtil().saveImage(new ColorImage(1000, 1200), path, "png");
+    log = new StringBuilder();
+    List<Integer> widths = new ArrayList<>();
+    IView view = new MockView(log, "") {
+      @Override
+      public void updateDisplayedImage(ImageIcon image) {
+        widths.add(image.getIconWidth());
+      }
+    };
+    HashMap<String, Image> imageNames = new HashMap<>();
+    MVCCommandController controller = new MVCCommandController(new MockModel(log),
+        System.in, System.out, imageNames, view);
+
+    controller.openImage(path).get();
+    // the whole image is shown on the event dispatch thread shortly after it is decoded
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline && widths.size() < 2) {
+      Thread.sleep(10);
+      SwingUtilities.invokeAndWait(() -> { });
+    }
+
+    assertEquals(Arrays.asList(600, 1200), widths);
+    assertEquals(1200, imageNames.get("current_image").getWidth());
+    new File(path).delete();
+    directory.delete();
+  }
+}
@@ -0,0 +1,118 @@
+package controller;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for batching requests with a RequestBatcher.
+ */
+public class RequestBatcherTest {
+
+  private final List<Runnable> queued = new ArrayList<>();
+  private final Function<byte[], byte[]> upperCase = body -> new String(body,
+      StandardCharsets.UTF_8).toUpperCase().getBytes(StandardCharsets.UTF_8);
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testRequestsJoinWaitingBatch() throws Exception {
+    RequestBatcher batcher = new RequestBatcher(queued::add);
+    CompletableFuture<byte[]> first = batcher.submit("upper", bytes("a"), upperCase);
+    CompletableFuture<byte[]> second = batcher.submit("upper", bytes("b"), upperCase);
+    CompletableFuture<byte[]> same = batcher.submit("upper", bytes("a"), upperCase);
+    CompletableFuture<byte[]> other = batcher.submit("lower", bytes("C"), body -> body);
+
+    // one batch per key and body, waiting for a worker
+    assertEquals(3, queued.size());
+    assertFalse(first.isDone());
+    queued.forEach(Runnable::run);
+
+    assertArrayEquals(bytes("A"), first.get());
+    assertArrayEquals(bytes("B"), second.get());
+    assertArrayEquals(bytes("A"), same.get());
+    assertArrayEquals(bytes("C"), other.get());
+    // the same body is processed once
+    assertEquals(3, batcher.processed());
+  }
+
+  @Test
+  public void testRunningBatchTakesNoMoreRequests() throws Exception {
+    RequestBatcher batcher = new RequestBatcher(queued::add);
+    batcher.submit("upper", bytes("a"), upperCase);
+    queued.remove(0).run();
+    CompletableFuture<byte[]> later = batcher.submit("upper", bytes("a"), upperCase);
+
+    assertEquals(1, queued.size());
+    queued.remove(0).run();
+    assertArrayEquals(bytes("A"), later.get());
+    assertEquals(2, batcher.processed());
+  }
+
+  @Test
+  public void testDistinctBodiesRunOnSeparateWorkers() throws Exception {
+    RequestBatcher batcher = new RequestBatcher(queued::add);
+    List<CompletableFuture<byte[]>> results = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      results.add(batcher.submit("upper", bytes("x" + i), upperCase));
+    }
+
+    // each body is a task of its own, which an idle worker can take
+    assertEquals(5, queued.size());
+    queued.remove(3).run();
+    assertArrayEquals(bytes("X3"), results.get(3).get());
+    assertFalse(results.get(0).isDone());
+  }
+
+  @Test
+  public void testRejectedBatchFailsItsRequests() {
+    RequestBatcher batcher = new RequestBatcher(task -> {
+      throw new RejectedExecutionException("stopped");
+    });
+
+    CompletableFuture<byte[]> result = batcher.submit("upper", bytes("a"), upperCase);
+
+    assertTrue(result.isCompletedExceptionally());
+    assertEquals(0, batcher.processed());
+  }
+
+  @Test
+  public void testFailureReachesEveryRequestOfBody() throws InterruptedException {
+    RequestBatcher batcher = new RequestBatcher(queued::add);
+    Function<byte[], byte[]> failing = body -> {
+      if (body.length == 0) {
+        throw new IllegalStateException("empty");
+      }
+      return body;
+    };
+    CompletableFuture<byte[]> empty = batcher.submit("check", new byte[0], failing);
+    CompletableFuture<byte[]> again = batcher.submit("check", new byte[0], failing);
+    CompletableFuture<byte[]> full = batcher.submit("check", bytes("z"), failing);
+    queued.forEach(Runnable::run);
+
+    for (CompletableFuture<byte[]> result : Arrays.asList(empty, again)) {
+      try {
+        result.get();
+        fail("the request should have failed");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    }
+    assertTrue(full.isDone() && !full.isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,190 @@
+package controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.BetterColorImageProcessor;
+import model.ColorImage;
+import model.ColorPixel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for running scripts with a ScriptServer and a ScriptClient.
+ */
+public class ScriptServerTest {
+
+  private ScriptServer server;
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("server").toFile();
+    server = new ScriptServer(new BetterColorImageProcessor(),
+        new File(directory, "socket/server.sock").toPath(), 2);
+    new Thread(server::serve).start();
+    ColorImage image = new ColorImage(8, 6);
+    for (int i = 0; i < 8; i++) {
+      for (int j = 0; j < 6; j++) {
+        image.setPixel(i, j, new ColorPixel(i * 30, j * 40, 100));
+      }
+    }
+    new ImageUtil().savePPM(image, new File(directory, "in.ppm").getPath());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+    delete(directory);
+  }
+
+  private static void delete(File directory) {
+    for (File file : directory.listFiles()) {
+      if (file.isDirectory()) {
+        delete(file);
+      } else {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private String script(String name, String... lines) throws IOException {
+    File file = new File(directory, name);
+    Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file.getPath();
+  }
+
+  @Test
+  public void testScriptRunOnServer() throws IOException {
+    String script = script("script.txt",
+        "load " + new File(directory, "in.ppm").getPath() + " a",
+        "blur a b",
+        "save " + new File(directory, "out.png").getPath() + " b");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    int status = ScriptClient.run(script, server.getSocket(), new PrintStream(bytes, true));
+
+    assertEquals(0, status);
+    assertTrue(bytes.toString().contains("Saved image"));
+    assertEquals(6, new ImageUtil().getImage(new File(directory, "out.png").getPath())
+        .getWidth());
+  }
+
+  @Test
+  public void testFailedScriptStatus() throws IOException {
+    String script = script("script.txt", "blur missing b");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    int status = ScriptClient.run(script, server.getSocket(), new PrintStream(bytes, true));
+
+    assertEquals(1, status);
+    assertTrue(bytes.toString().contains("Error: "));
+  }
+
+  @Test
+  public void testConcurrentScripts() throws Exception {
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> statuses = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      String script = script("script" + i + ".txt",
+          "load " + new File(directory, "in.ppm").getPath() + " a",
+          "brighten " + i + " a b",
+          "save " + new File(directory, "out" + i + ".ppm").getPath() + " b");
+      statuses.add(clients.submit(() -> ScriptClient.run(script, server.getSocket(),
+          new PrintStream(new ByteArrayOutputStream()))));
+    }
+    for (int i = 0; i < 4; i++) {
+      assertEquals(0, (int) statuses.get(i).get());
+      assertTrue(new File(directory, "out" + i + ".ppm").length() > 0);
+    }
+    clients.shutdown();
+  }
+
+  @Test
+  public void testWorkingDirectoryWithDot() throws IOException {
+    File dotted = new File(directory, "dot.dir");
+    assertTrue(dotted.mkdir());
+    Files.copy(new File(directory, "in.ppm").toPath(), new File(dotted, "in.ppm").toPath());
+    StringBuilder response = new StringBuilder();
+
+    // the header a client sends from that directory, with relative paths in the script
+    try (SocketChannel socket = SocketChannel.open(
+        UnixDomainSocketAddress.of(server.getSocket()))) {
+      Writer writer = new OutputStreamWriter(Channels.newOutputStream(socket),
+          StandardCharsets.UTF_8);
+      writer.write("cwd " + dotted.getAbsolutePath() + "\n"
+          + "load in.ppm a\n"
+          + "sepia a b\n"
+          + "save out.png b\n"
+          + "save out.ppm b\n");
+      writer.flush();
+      socket.shutdownOutput();
+      BufferedReader in = new BufferedReader(new InputStreamReader(
+          Channels.newInputStream(socket), StandardCharsets.UTF_8));
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        response.append(line).append("\n");
+      }
+    }
+
+    assertTrue(response.toString(), response.toString().endsWith(ScriptServer.EXIT + 0 + "\n"));
+    assertEquals(6, new ImageUtil().getImage(new File(dotted, "out.png").getPath())
+        .getWidth());
+    assertTrue(new File(dotted, "out.ppm").length() > 0);
+  }
+
+  @Test
+  public void testSocketOnlyOpenToItsOwner() throws IOException {
+    assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(
+        server.getSocket().getParent())));
+  }
+
+  @Test
+  public void testSecondServerOnSameSocket() throws IOException {
+    try {
+      new ScriptServer(new BetterColorImageProcessor(), server.getSocket(), 1).close();
+      fail("the socket is taken");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, ScriptClient.run(script("script.txt", "load "
+        + new File(directory, "in.ppm").getPath() + " a"), server.getSocket(),
+        new PrintStream(new ByteArrayOutputStream())));
+  }
+
+  @Test
+  public void testStaleSocketReplaced() throws IOException {
+    server.close();
+    Files.createFile(server.getSocket());
+    server = new ScriptServer(new BetterColorImageProcessor(), server.getSocket(), 1);
+    new Thread(server::serve).start();
+
+    assertEquals(0, ScriptClient.run(script("script.txt", "load "
+        + new File(directory, "in.ppm").getPath() + " a"), server.getSocket(),
+        new PrintStream(new ByteArrayOutputStream())));
+  }
+}
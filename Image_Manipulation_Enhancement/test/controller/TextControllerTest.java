@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
 
@@ -56,6 +57,13 @@ public class TextControllerTest {
       return null;
     }
 
+    @Override
+    public HashMap<String, Image> extractComponents(Image image, Set<String> components) {
+      log.append("components " + components.size() + " " + image.getHeight() + ", "
+              + image.getWidth());
+      return null;
+    }
+
     @Override
     public Image flipHorizontally(Image image) {
       log.append("horizontal flip " + image.getHeight() + ", " + image.getWidth());
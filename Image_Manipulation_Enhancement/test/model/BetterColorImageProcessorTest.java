@@ -7,10 +7,16 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.HashMap;
+import java.util.Random;
 
 import controller.ImageUtil;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test class for the BetterColorImageProcessor model.
@@ -1656,4 +1662,322 @@ public class BetterColorImageProcessorTest {
     }
   }
 
-}
\ No newline at end of file
+  private Image randomImage(int height, int width, long seed) {
+    Random random = new Random(seed);
+    Image image = new ColorImage(height, width);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        image.setPixel(i, j, new ColorPixel(random.nextInt(256), random.nextInt(256),
+            random.nextInt(256)));
+      }
+    }
+    return image;
+  }
+
+  @Test
+  public void testParallelHistogramMatchesSerial() {
+    Image image = randomImage(301, 257, 42);
+
+    int[][] serial = new HistogramEngine(1).compute(image);
+    int[][] parallel = new HistogramEngine(8).compute(image);
+
+    for (int channel = 0; channel < 3; channel++) {
+      assertArrayEquals(serial[channel], parallel[channel]);
+    }
+    HashMap<Color, int[]> histograms = processor.computeHistogram(image);
+    assertArrayEquals(serial[0], histograms.get(Color.RED));
+    assertArrayEquals(serial[1], histograms.get(Color.GREEN));
+    assertArrayEquals(serial[2], histograms.get(Color.BLUE));
+  }
+
+  @Test
+  public void testStatisticsCachedAndInvalidated() {
+    Image image = randomImage(20, 30, 7);
+    ImageStatistics statistics = image.getStatistics();
+
+    assertSame(statistics, image.getStatistics());
+    assertSame(statistics, processor.flipHorizontally(image).getStatistics());
+    assertSame(statistics, processor.flipVertically(image).getStatistics());
+
+    assertArrayEquals(statistics.getHistogram(ImageStatistics.RED),
+        processor.computeHistogram(image).get(Color.RED));
+    assertEquals(600, statistics.getCount());
+
+    image.setPixel(0, 0, new ColorPixel(255, 0, 0));
+    assertNotSame(statistics, image.getStatistics());
+    assertEquals(255, image.getStatistics().getMax(ImageStatistics.RED));
+  }
+
+  @Test
+  public void testStatisticsValues() {
+    sampleImage.setPixel(0, 0, new ColorPixel(90, 100, 200));
+    sampleImage.setPixel(0, 1, new ColorPixel(90, 50, 200));
+    ImageStatistics statistics = sampleImage.getStatistics();
+
+    assertEquals(0, statistics.getMin(ImageStatistics.RED));
+    assertEquals(90, statistics.getMax(ImageStatistics.RED));
+    assertEquals(20.0, statistics.getMean(ImageStatistics.RED), 0.001);
+    assertEquals(90, statistics.getMeaningfulPeak(ImageStatistics.RED));
+    assertEquals(50, statistics.getMeaningfulPeak(ImageStatistics.GREEN));
+  }
+
+  @Test
+  public void testHistogramRasterized() {
+    Image histogram = processor.histogram(sampleImage);
+
+    assertEquals(256, histogram.getHeight());
+    assertEquals(256, histogram.getWidth());
+    // grid line
+    assertEquals(192, histogram.getPixel(0, 5).getRed(), 0.001);
+    assertEquals(192, histogram.getPixel(5, 16).getGreen(), 0.001);
+    // every pixel is black, so each channel peaks at level 0 and is drawn last in blue
+    assertEquals(255, histogram.getPixel(0, 0).getBlue(), 0.001);
+    assertEquals(0, histogram.getPixel(0, 0).getRed(), 0.001);
+    // background
+    assertEquals(0, histogram.getPixel(100, 100).getRed(), 0.001);
+    assertEquals(0, histogram.getPixel(100, 100).getBlue(), 0.001);
+  }
+
+  @Test
+  public void testSampledStatisticsConfidence() {
+    Image image = randomImage(200, 200, 3);
+    for (int i = 0; i < 200; i++) {
+      for (int j = 0; j < 100; j++) {
+        image.setPixel(i, j, new ColorPixel(60, 120, 180));
+      }
+    }
+
+    ImageStatistics peaked = ImageStatistics.sample(image, 0.25);
+    assertEquals(false, peaked.isExact());
+    assertEquals(10000, peaked.getCount());
+    assertEquals(120, peaked.getMeaningfulPeak(ImageStatistics.GREEN));
+    assertEquals(true, peaked.getPeakConfidence(ImageStatistics.GREEN) > 0.99);
+
+    ImageStatistics flat = ImageStatistics.sample(randomImage(200, 200, 4), 0.25);
+    assertEquals(true, flat.getPeakConfidence(ImageStatistics.RED) < 0.99);
+    assertEquals(1.0, image.getStatistics().getPeakConfidence(ImageStatistics.RED), 0.0);
+  }
+
+  @Test
+  public void testSampledColorCorrectMatchesExact() {
+    Image image = randomImage(120, 120, 5);
+    for (int i = 0; i < 120; i++) {
+      for (int j = 0; j < 60; j++) {
+        image.setPixel(i, j, new ColorPixel(70, 90, 150));
+      }
+    }
+    Image exact = processor.colorCorrect(image);
+
+    BetterColorImageProcessor sampling = new BetterColorImageProcessor();
+    sampling.setHistogramSampling(0, 0.25, 0.99);
+    Image sampled = sampling.colorCorrect(copyOf(image));
+    Image ambiguous = sampling.colorCorrect(randomImage(120, 120, 6));
+
+    for (int i = 0; i < 120; i++) {
+      for (int j = 0; j < 120; j++) {
+        assertEquals(exact.getPixel(i, j).getRed(), sampled.getPixel(i, j).getRed(), 0.001);
+        assertEquals(exact.getPixel(i, j).getBlue(), sampled.getPixel(i, j).getBlue(), 0.001);
+      }
+    }
+    Image ambiguousExact = processor.colorCorrect(randomImage(120, 120, 6));
+    assertEquals(ambiguousExact.getPixel(7, 9).getGreen(), ambiguous.getPixel(7, 9).getGreen(),
+        0.001);
+  }
+
+  private Image copyOf(Image image) {
+    Image copy = new ColorImage(image.getHeight(), image.getWidth());
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        copy.setPixel(i, j, image.getPixel(i, j));
+      }
+    }
+    return copy;
+  }
+
+  private Image wholeLevels(Image image) {
+    Image whole = new BufferedColorImage(image.getHeight(), image.getWidth());
+    for (int i = 0; i < image.getHeight(); i++) {
+      for (int j = 0; j < image.getWidth(); j++) {
+        whole.setPixel(i, j, image.getPixel(i, j));
+      }
+    }
+    return whole;
+  }
+
+  private void assertSameImage(Image expected, Image actual) {
+    assertEquals(expected.getHeight(), actual.getHeight());
+    assertEquals(expected.getWidth(), actual.getWidth());
+    for (int i = 0; i < expected.getHeight(); i++) {
+      for (int j = 0; j < expected.getWidth(); j++) {
+        assertEquals(expected.getPixel(i, j).getRed(), actual.getPixel(i, j).getRed(), 0.0001);
+        assertEquals(expected.getPixel(i, j).getGreen(), actual.getPixel(i, j).getGreen(),
+            0.0001);
+        assertEquals(expected.getPixel(i, j).getBlue(), actual.getPixel(i, j).getBlue(),
+            0.0001);
+      }
+    }
+  }
+
+  @Test
+  public void testSplitViewProcessesPreviewOnly() {
+    Image image = randomImage(17, 23, 11);
+    for (int percentage : new int[]{0, 10, 50, 99, 100}) {
+      assertSameImage(processor.mergeForSplitView(image, processor.blur(image), percentage),
+          processor.splitView(image, "blur", percentage));
+      assertSameImage(processor.mergeForSplitView(image, processor.sharpen(image), percentage),
+          processor.splitView(image, "sharpen", percentage));
+      assertSameImage(processor.mergeForSplitView(image, processor.sepia(image), percentage),
+          processor.splitView(image, "sepia", percentage));
+      assertSameImage(processor.mergeForSplitView(image, processor.colorCorrect(image),
+          percentage), processor.splitView(image, "color-correct", percentage));
+      assertSameImage(processor.mergeForSplitView(image, processor.dither(image), percentage),
+          processor.splitView(image, "dither", percentage));
+      assertSameImage(processor.mergeForSplitView(image,
+          processor.adjustLevels(image, 20, 100, 230), percentage),
+          processor.splitView(image, 20, 100, 230, percentage));
+    }
+  }
+
+  @Test
+  public void testRegionProcessing() {
+    Image image = randomImage(12, 15, 21);
+    RegionImageProcessor region = new RegionImageProcessor(processor, 3, 4, 5, 6);
+
+    Image blurred = processor.blur(image);
+    Image regionBlurred = region.blur(image);
+    Image sepia = processor.sepia(image);
+    Image regionSepia = region.sepia(image);
+    for (int i = 0; i < 12; i++) {
+      for (int j = 0; j < 15; j++) {
+        boolean inside = i >= 3 && i < 8 && j >= 4 && j < 10;
+        Image expectedBlur = inside ? blurred : image;
+        Image expectedSepia = inside ? sepia : image;
+        assertEquals(expectedBlur.getPixel(i, j).getRed(),
+            regionBlurred.getPixel(i, j).getRed(), 0.0001);
+        assertEquals(expectedSepia.getPixel(i, j).getGreen(),
+            regionSepia.getPixel(i, j).getGreen(), 0.0001);
+      }
+    }
+    // rows outside of the region are shared with the source until written
+    regionBlurred.setPixel(0, 0, new ColorPixel(1, 2, 3));
+    assertNotSame(image.getPixel(0, 0), regionBlurred.getPixel(0, 0));
+    assertSame(image.getPixel(0, 1), regionBlurred.getPixel(0, 1));
+
+    Image flipped = region.flipHorizontally(image);
+    assertSame(image.getPixel(3, 9), flipped.getPixel(3, 4));
+    assertSame(image.getPixel(2, 9), flipped.getPixel(2, 9));
+  }
+
+  @Test
+  public void testCopyOnWrite() {
+    Image image = randomImage(4, 4, 9);
+    ColorPixel original = image.getPixel(1, 1);
+    Image copy = new ColorImage(image);
+
+    copy.setPixel(1, 1, new ColorPixel(0, 0, 0));
+    assertSame(original, image.getPixel(1, 1));
+    image.setPixel(2, 2, new ColorPixel(255, 255, 255));
+    assertNotSame(image.getPixel(2, 2), copy.getPixel(2, 2));
+  }
+
+  @Test
+  public void testBufferedImageProcessing() {
+    Image image = randomImage(19, 21, 13);
+    Image buffered = new BufferedColorImage(19, 21);
+    for (int i = 0; i < 19; i++) {
+      for (int j = 0; j < 21; j++) {
+        buffered.setPixel(i, j, image.getPixel(i, j));
+      }
+    }
+    assertSameImage(image, buffered);
+
+    Image flipped = processor.flipHorizontally(buffered);
+    Image blurred = processor.blur(buffered);
+    Image region = new RegionImageProcessor(processor, 2, 3, 4, 5).sepia(buffered);
+    assertTrue(processor.histogram(buffered) instanceof BufferedColorImage);
+    assertSameImage(processor.flipHorizontally(image), flipped);
+
+    // results keep the fractions of their levels, which a buffered image would truncate
+    assertFalse(blurred instanceof BufferedColorImage);
+    assertFalse(region instanceof BufferedColorImage);
+    assertSameImage(processor.blur(image), blurred);
+    assertSameImage(processor.blur(processor.blur(image)), processor.blur(blurred));
+    assertEquals(image.getPixel(0, 0).getBlue(), region.getPixel(0, 0).getBlue(), 0.0001);
+  }
+
+  @Test
+  public void testTiledImage() {
+    Image image = randomImage(50, 70, 17);
+    TiledColorImage tiled = new TiledColorImage(50, 70, 8, 0);
+    for (int i = 0; i < 50; i++) {
+      for (int j = 0; j < 70; j++) {
+        tiled.setPixel(i, j, image.getPixel(i, j));
+      }
+    }
+    // only four of the 63 tiles stay on the heap, so most were spilled and read back
+    assertSameImage(image, tiled);
+    assertArrayEquals(image.getStatistics().getHistogram(ImageStatistics.GREEN),
+        tiled.getStatistics().getHistogram(ImageStatistics.GREEN));
+  }
+
+  @Test
+  public void testTiledResultsShareBudget() {
+    Image image = randomImage(48, 48, 23);
+    // six of the 16 by 16 tiles, of which each image has nine
+    TileCache cache = new TileCache(6 * 4 * 16 * 16);
+    TiledColorImage tiled = new TiledColorImage(48, 48, 16, cache);
+    Image buffered = new BufferedColorImage(48, 48);
+    for (int i = 0; i < 48; i++) {
+      for (int j = 0; j < 48; j++) {
+        tiled.setPixel(i, j, image.getPixel(i, j));
+        buffered.setPixel(i, j, image.getPixel(i, j));
+      }
+    }
+    TiledImageProcessor tiles = new TiledImageProcessor(processor);
+
+    Image[] results = {tiles.computeValue(tiled), tiles.computeIntensity(tiled),
+        tiles.computeLuma(tiled), tiles.sepia(tiled), tiles.flipVertically(tiled)};
+    for (Image result : results) {
+      assertSame(cache, ((TiledColorImage) result).getTileCache());
+    }
+    assertTrue(cache.getResidentBytes() <= cache.getMemoryBudget());
+    assertSameImage(wholeLevels(processor.computeLuma(buffered)), results[2]);
+    assertSameImage(processor.flipVertically(buffered), results[4]);
+    assertSameImage(image, tiled);
+
+    // a smaller budget spills the tiles that no longer fit
+    cache.setMemoryBudget(0);
+    assertEquals(4 * 4 * 16 * 16, cache.getResidentBytes());
+    assertSameImage(wholeLevels(processor.sepia(buffered)), results[3]);
+  }
+
+  @Test
+  public void testTiledProcessing() {
+    Image image = randomImage(45, 38, 19);
+    TiledColorImage tiled = new TiledColorImage(45, 38, 16, 0);
+    Image buffered = new BufferedColorImage(45, 38);
+    for (int i = 0; i < 45; i++) {
+      for (int j = 0; j < 38; j++) {
+        tiled.setPixel(i, j, image.getPixel(i, j));
+        buffered.setPixel(i, j, image.getPixel(i, j));
+      }
+    }
+    TiledImageProcessor tiles = new TiledImageProcessor(processor);
+
+    // tiled images keep whole levels only
+    Image blurred = tiles.blur(tiled);
+    assertTrue(blurred instanceof TiledColorImage);
+    assertSameImage(wholeLevels(processor.blur(buffered)), blurred);
+    assertSameImage(wholeLevels(processor.sharpen(buffered)), tiles.sharpen(tiled));
+    assertSameImage(processor.flipHorizontally(buffered), tiles.flipHorizontally(tiled));
+    assertSameImage(processor.flipVertically(buffered), tiles.flipVertically(tiled));
+    assertSameImage(wholeLevels(processor.sepia(buffered)), tiles.sepia(tiled));
+    assertSameImage(wholeLevels(processor.colorCorrect(buffered)), tiles.colorCorrect(tiled));
+    assertSameImage(processor.histogram(buffered), tiles.histogram(tiled));
+    HashMap<String, Image> channels = tiles.splitIntoRGB(tiled);
+    assertSameImage(processor.splitIntoRGB(buffered).get("greenChannel"),
+        channels.get("greenChannel"));
+    assertSameImage(buffered, tiles.combineImages(channels.get("redChannel"),
+        channels.get("greenChannel"), channels.get("blueChannel")));
+  }
+}
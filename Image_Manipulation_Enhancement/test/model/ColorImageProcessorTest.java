@@ -4,6 +4,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
@@ -138,4 +140,33 @@ public class ColorImageProcessorTest {
     assertEquals(greenValue, ((ColorPixel) sepia.getPixel(1, 1)).getGreen(), 0.001);
     assertEquals(blueValue, ((ColorPixel) sepia.getPixel(1, 1)).getBlue(), 0.001);
   }
+
+  @Test
+  public void testExtractComponents() {
+    sampleImage.setPixel(1, 1, new ColorPixel(30, 90, 60));
+
+    Set<String> components = new HashSet<>();
+    components.add("greenChannel");
+    components.add("value");
+    components.add("luma");
+    components.add("intensity");
+    HashMap<String, Image> result = processor.extractComponents(sampleImage, components);
+
+    assertEquals(4, result.size());
+    assertEquals(90, result.get("greenChannel").getPixel(1, 1).getGreen(), 0.001);
+    assertEquals(0, result.get("greenChannel").getPixel(1, 1).getRed(), 0.001);
+    assertEquals(processor.computeValue(sampleImage).getPixel(1, 1).getRed(),
+            result.get("value").getPixel(1, 1).getRed(), 0.001);
+    assertEquals(processor.computeLuma(sampleImage).getPixel(1, 1).getRed(),
+            result.get("luma").getPixel(1, 1).getRed(), 0.001);
+    assertEquals(processor.computeIntensity(sampleImage).getPixel(1, 1).getBlue(),
+            result.get("intensity").getPixel(1, 1).getBlue(), 0.001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testExtractUnknownComponent() {
+    Set<String> components = new HashSet<>();
+    components.add("alpha");
+    processor.extractComponents(sampleImage, components);
+  }
 }